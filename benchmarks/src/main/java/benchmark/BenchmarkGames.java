@@ -0,0 +1,52 @@
+package benchmark;
+
+import game.Game;
+import game.Player;
+
+/**
+ * Builds games in a known state for the benchmark suites.
+ */
+final class BenchmarkGames {
+
+    private BenchmarkGames () {
+    }
+
+    /**
+     * Creates a game with the given number of players and advances it to the given stage.  Every player is given
+     * a distinct first letter so ids are assigned without collisions.  Games of more than 26 players are large
+     * lobbies.  In stage 2 every player is at war with every other player so attacks are possible.
+     * @param numOfPlayers the number of players to add, at least 1
+     * @param density the land density of the generated map
+     * @param stage the game stage to advance to, 1 or 2
+     * @return the started game
+     */
+    static Game startedGame (int numOfPlayers, Game.LandDensity density, int stage) {
+        Game game = new Game(density, 100);
+        if (numOfPlayers > 26) {
+            game.enableLargeLobby(numOfPlayers);
+        }
+        for (int i = 0; i < numOfPlayers; i++) {
+            game.addPlayer(new Player((char) ('a' + i) + "player", i));
+        }
+        for (int i = 0; i < stage; i++) {
+            game.advanceGameStage();
+        }
+        if (stage >= 2) {
+            for (Player initiator : game.getPlayers()) {
+                for (Player target : game.getPlayers()) {
+                    game.declareWar(initiator, target);
+                }
+            }
+        }
+        return game;
+    }
+
+    /**
+     * Gives every player in the game enough funds to expand the given number of times.
+     */
+    static void fundPlayers (Game game, int units) {
+        for (Player player : game.getPlayers()) {
+            game.adjustPlayerFunds(player, units);
+        }
+    }
+}
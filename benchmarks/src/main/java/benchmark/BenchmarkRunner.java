@@ -0,0 +1,21 @@
+package benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+public class BenchmarkRunner {
+    /**
+     * Runs the benchmarks selected by the standard JMH command line, always attaching the gc profiler so
+     * allocation regressions (gc.alloc.rate.norm) show up next to the timings.
+     * @param args the usual JMH command line options, e.g. a benchmark regex or -p players=4,26
+     */
+    public static void main (String[] args) throws Exception {
+        CommandLineOptions cmdOptions = new CommandLineOptions(args);
+        new Runner(new OptionsBuilder()
+            .parent(cmdOptions)
+            .addProfiler(GCProfiler.class)
+            .build()).run();
+    }
+}
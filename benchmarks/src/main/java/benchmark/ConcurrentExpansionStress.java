@@ -0,0 +1,186 @@
+package benchmark;
+
+import game.ExpansionReport;
+import game.Game;
+import game.Player;
+import map.IndexedCellSet;
+import map.Map;
+import map.MapCell;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Expands every player of a game from several threads at once with concurrent expansion enabled, then checks
+ * that each player's territory, weak territory, borders and frontier agree with the map, and that no player
+ * spent more than they were given.  Exits with a non-zero status on the first broken invariant.
+ * <br>
+ * Usage: ConcurrentExpansionStress [games] [threads]
+ */
+public final class ConcurrentExpansionStress {
+    private static final Map.NeighborLocation[] EDGES = {
+        Map.NeighborLocation.LEFT, Map.NeighborLocation.UP, Map.NeighborLocation.RIGHT, Map.NeighborLocation.DOWN
+    };
+
+    private ConcurrentExpansionStress () {
+    }
+
+    public static void main (String[] args) throws Exception {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 20,
+            threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Random random = new Random(13);
+
+        try {
+            for (int g = 0; g < games; g++) {
+                int numOfPlayers = 4 + random.nextInt(23);
+                Game game = new Game(Game.LandDensity.values()[random.nextInt(3)], 100);
+                for (int i = 0; i < numOfPlayers; i++) {
+                    game.addPlayer(new Player((char) ('a' + i) + "player", i));
+                }
+                game.enableConcurrentExpansion(8);
+                game.advanceGameStage();
+                runRound(game, executor, threads, 40);
+                check(game);
+
+                game.advanceGameStage();
+                for (Player initiator : game.getPlayers()) {
+                    for (Player target : game.getPlayers()) {
+                        game.declareWar(initiator, target);
+                    }
+                }
+                runRound(game, executor, threads, 200);
+                check(game);
+            }
+        } catch (AssertionError e) {
+            System.err.println("invariant broken: " + e.getMessage());
+            System.exit(1);
+        } finally {
+            executor.shutdownNow();
+        }
+        System.out.println("checked " + games + " games on " + threads + " threads");
+    }
+
+    /**
+     * Funds every player, then has each thread expand every player in turn, so every player is expanded by
+     * several threads at the same time.  Spending is checked against the reports once all threads finish.
+     */
+    private static void runRound (Game game, ExecutorService executor, int threads, int units) throws Exception {
+        List<Player> players = new ArrayList<>(game.getPlayers());
+        List<Future<?>> results = new ArrayList<>();
+        AtomicInteger[] spent = new AtomicInteger[players.size()];
+        int[] funds = new int[players.size()];
+
+        for (int i = 0; i < players.size(); i++) {
+            game.adjustPlayerFunds(players.get(i), units);
+            funds[i] = players.get(i).getExpansionFund();
+            spent[i] = new AtomicInteger();
+        }
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            results.add(executor.submit(() -> {
+                for (int i = 0; i < players.size(); i++) {
+                    int p = (i + offset) % players.size();
+                    ExpansionReport report = game.expand(players.get(p), units / threads + 1);
+                    spent[p].addAndGet(report.successfulExpansions);
+                }
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        for (int i = 0; i < players.size(); i++) {
+            Player player = players.get(i);
+            if (player.getExpansionFund() < 0 || funds[i] - player.getExpansionFund() != spent[i].get()) {
+                throw new AssertionError(player.getUsername() + " spent " + (funds[i] - player.getExpansionFund())
+                    + " but reported " + spent[i].get());
+            }
+        }
+    }
+
+    private static void check (Game game) {
+        Map map = game.getMap();
+        int size = map.getWidth() * map.getHeight();
+
+        for (Player player : game.getPlayers()) {
+            int owned = 0, weak = 0, frontier = player.getFrontier().getUnclaimedLand().size();
+            for (int i = 0; i < size; i++) {
+                if (map.getOwnerId(i) == player.getId()) {
+                    owned++;
+                }
+                if (isFrontier(map, i, player) != player.getFrontier().contains(i, map.getOwnerId(i))) {
+                    throw new AssertionError(player.getUsername() + " frontier disagrees with the map at " + i);
+                }
+            }
+            if (owned != player.getTerritory().size()) {
+                throw new AssertionError(player.getUsername() + " owns " + owned + " cells but has "
+                    + player.getTerritory().size() + " in territory");
+            }
+            for (IndexedCellSet cells : player.getFrontier().getAllOwnedLand()) {
+                frontier += cells.size();
+            }
+            for (int i = 0; i < size; i++) {
+                if (isFrontier(map, i, player)) {
+                    frontier--;
+                }
+            }
+            if (frontier != 0) {
+                throw new AssertionError(player.getUsername() + " frontier holds stale cells");
+            }
+            for (MapCell cell : player.getTerritory()) {
+                boolean isWeak = cell.getHp() == MapCell.HP.WEAK;
+                if (cell.getOwnerId() != player.getId()) {
+                    throw new AssertionError(player.getUsername() + " territory holds a foreign cell");
+                }
+                if (isWeak != player.getWeakTerritory().contains(cell)) {
+                    throw new AssertionError(player.getUsername() + " weak territory disagrees with the map");
+                }
+                weak += isWeak ? 1 : 0;
+            }
+            if (weak != player.getWeakTerritory().size()) {
+                throw new AssertionError(player.getUsername() + " weak territory holds stale cells");
+            }
+            checkBorders(map, player);
+        }
+    }
+
+    private static void checkBorders (Map map, Player player) {
+        IndexedCellSet[] borders = {
+            player.getWestBorders(), player.getNorthBorders(), player.getEastBorders(), player.getSouthBorders()
+        };
+        for (int d = 0; d < EDGES.length; d++) {
+            int expected = 0;
+            for (MapCell cell : player.getTerritory()) {
+                int neighbor = map.getNeighborIndex(cell.getIndex(), EDGES[d]);
+                boolean isBorder = neighbor != -1 && map.getOwnerId(neighbor) != MapCell.SEA
+                    && map.getOwnerId(neighbor) != player.getId();
+                if (isBorder != borders[d].contains(cell)) {
+                    throw new AssertionError(player.getUsername() + " " + EDGES[d] + " border disagrees with the map");
+                }
+                expected += isBorder ? 1 : 0;
+            }
+            if (expected != borders[d].size()) {
+                throw new AssertionError(player.getUsername() + " " + EDGES[d] + " border holds stale cells");
+            }
+        }
+    }
+
+    private static boolean isFrontier (Map map, int index, Player player) {
+        int ownerId = map.getOwnerId(index);
+        if (ownerId == MapCell.SEA || ownerId == player.getId()) {
+            return false;
+        }
+        for (Map.NeighborLocation edge : EDGES) {
+            int neighbor = map.getNeighborIndex(index, edge);
+            if (neighbor != -1 && map.getOwnerId(neighbor) == player.getId()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
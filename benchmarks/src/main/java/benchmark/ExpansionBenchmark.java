@@ -0,0 +1,60 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import game.ExpansionReport;
+import game.Game;
+import game.Player;
+
+/**
+ * Measures {@link Game#expand(Player, int)} from a freshly started game.  Expansion mutates the map, so every
+ * invocation gets a new game; the setup cost is excluded from the measurement.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ExpansionBenchmark {
+
+    @Param({"4", "12", "26"})
+    public int players;
+
+    @Param({"NORMAL"})
+    public Game.LandDensity density;
+
+    @Param({"1", "2"})
+    public int stage;
+
+    @Param({"8", "64", "512", "4096"})
+    public int expansions;
+
+    private Game game;
+    private Player expander;
+
+    @Setup(Level.Invocation)
+    public void setUp () {
+        game = BenchmarkGames.startedGame(players, density, stage);
+        BenchmarkGames.fundPlayers(game, expansions);
+        expander = game.getPlayers().iterator().next();
+    }
+
+    @Benchmark
+    public ExpansionReport expand () {
+        return game.expand(expander, expansions);
+    }
+}
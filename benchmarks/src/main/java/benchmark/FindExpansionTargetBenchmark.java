@@ -0,0 +1,67 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import game.Game;
+import game.Player;
+import map.Map;
+import map.MapCell;
+import map.MapCellComparator;
+
+/**
+ * Measures {@link Map#findExpansionTarget(Player, MapCellComparator.Type)} on a mid-game board, where every
+ * player has expanded for a while during the war stage.  The lookup does not mutate the map, so the board is
+ * built once per trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FindExpansionTargetBenchmark {
+
+    @Param({"4", "12", "26"})
+    public int players;
+
+    @Param({"NORMAL"})
+    public Game.LandDensity density;
+
+    @Param({"UNCLAIMED_LAND", "ENEMY_LAND", "WEAK_OWNED_LAND"})
+    public MapCellComparator.Type type;
+
+    @Param({"32"})
+    public int expansionsPerPlayer;
+
+    private Map map;
+    private Player searcher;
+
+    @Setup(Level.Trial)
+    public void setUp () {
+        Game game = BenchmarkGames.startedGame(players, density, 2);
+        BenchmarkGames.fundPlayers(game, expansionsPerPlayer);
+        for (Player player : game.getPlayers()) {
+            game.expand(player, expansionsPerPlayer);
+        }
+        map = game.getMap();
+        searcher = game.getPlayers().iterator().next();
+    }
+
+    @Benchmark
+    public MapCell findExpansionTarget () {
+        return map.findExpansionTarget(searcher, type);
+    }
+}
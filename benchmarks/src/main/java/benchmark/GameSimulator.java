@@ -0,0 +1,331 @@
+package benchmark;
+
+import game.ExpansionReport;
+import game.Game;
+import game.Player;
+import metrics.Metrics;
+import metrics.StripedMetricsSink;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Plays complete games from recruitment to the end of the war stage with scripted bots, many games at once, to
+ * tune land densities, stage lengths and payouts, and to measure the engine's end to end throughput.  Every game
+ * is a fork/join task played on one thread, and bots only use the public {@link Game} API, as a chat front end
+ * would.
+ * <br>
+ * Bots are given funds at the start of every round and take their turns in a shuffled order, after which the map
+ * is rendered as a front end would post it.  Each bot follows one of a few {@link Strategy strategies}, dealt out
+ * evenly, so the win distribution shows whether any of them is favoured by the current rules.  Games are seeded
+ * by their number, so a run can be repeated exactly.
+ * <br>
+ * The run reports games and successful expansions per second, the latency percentiles of
+ * {@link Game#expand(Player, int)}, and how often each strategy and each seat won, followed by the engine's own
+ * metrics for the run.
+ * <br>
+ * Usage: GameSimulator [games] [parallelism] [players] [density] [establishing rounds] [war rounds]
+ */
+public final class GameSimulator {
+    //the funds every bot is given at the start of a round
+    private static final int INCOME = 8;
+
+    /**
+     * How a bot plays.
+     */
+    enum Strategy {
+        //spends everything on expansion and makes peace with anyone at war with it
+        EXPANDER,
+        //goes to war with the leader, or anyone when it leads, and stays at war
+        AGGRESSOR,
+        //saves up to expand in bursts, attacks players smaller than itself and sues for peace when it loses ground
+        OPPORTUNIST
+    }
+
+    /**
+     * The rules a game is played under.
+     */
+    static final class Settings {
+        final int players;
+        final Game.LandDensity density;
+        final int establishingRounds, warRounds;
+
+        Settings (int players, Game.LandDensity density, int establishingRounds, int warRounds) {
+            this.players = players;
+            this.density = density;
+            this.establishingRounds = establishingRounds;
+            this.warRounds = warRounds;
+        }
+    }
+
+    /**
+     * The outcome of one simulated game.
+     */
+    static final class GameResult {
+        long durationNanos;
+        int expandCalls;
+        long successfulExpansions;
+        //the latency of every call to expand, in nanoseconds
+        long[] expandLatencies = new long[64];
+        Strategy winningStrategy;
+        //the winner's place in the order players joined
+        int winningSeat;
+        //the share of the map's land the winner held
+        double winningShare;
+
+        private void recordExpand (long latency, ExpansionReport report) {
+            if (expandCalls == expandLatencies.length) {
+                expandLatencies = Arrays.copyOf(expandLatencies, expandCalls * 2);
+            }
+            expandLatencies[expandCalls++] = latency;
+            successfulExpansions += report.successfulExpansions;
+        }
+    }
+
+    private GameSimulator () {
+    }
+
+    public static void main (String[] args) throws Exception {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 1000,
+            parallelism = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        Settings settings = new Settings(
+            args.length > 2 ? Integer.parseInt(args[2]) : 8,
+            args.length > 3 ? Game.LandDensity.valueOf(args[3]) : Game.LandDensity.NORMAL,
+            args.length > 4 ? Integer.parseInt(args[4]) : 10,
+            args.length > 5 ? Integer.parseInt(args[5]) : 30);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        StripedMetricsSink metrics = new StripedMetricsSink();
+        List<SimulatedGame> tasks = new ArrayList<>();
+        List<GameResult> results = new ArrayList<>();
+        long start, wallNanos;
+
+        Metrics.setSink(metrics);
+        try {
+            start = System.nanoTime();
+            for (int g = 0; g < games; g++) {
+                tasks.add(new SimulatedGame(settings, g));
+                pool.execute(tasks.get(g));
+            }
+            for (SimulatedGame task : tasks) {
+                results.add(task.join());
+            }
+            wallNanos = System.nanoTime() - start;
+        } finally {
+            pool.shutdown();
+            Metrics.setSink(null);
+        }
+        report(settings, parallelism, results, wallNanos);
+        System.out.print(metrics);
+    }
+
+    /**
+     * Plays one game to the end on the calling thread.
+     * @param seed the seed of the game and its bots
+     */
+    static GameResult play (Settings settings, long seed) {
+        GameResult result = new GameResult();
+        SplittableRandom random = new SplittableRandom(seed);
+        Game game = new Game(settings.density, 100, seed);
+        List<Bot> bots = new ArrayList<>();
+        long start = System.nanoTime();
+
+        if (settings.players > 26) {
+            game.enableLargeLobby(settings.players);
+        }
+        for (int i = 0; i < settings.players; i++) {
+            Player player = game.addPlayer(new Player("bot" + i, i));
+            bots.add(new Bot(player, Strategy.values()[i % Strategy.values().length], i));
+        }
+        game.advanceGameStage();
+        for (int round = 0; round < settings.establishingRounds; round++) {
+            playRound(game, bots, random, result);
+        }
+        game.advanceGameStage();
+        for (int round = 0; round < settings.warRounds; round++) {
+            playRound(game, bots, random, result);
+        }
+        game.advanceGameStage();
+
+        Player winner = game.getLeaderboard().top(1).get(0);
+        for (Bot bot : bots) {
+            if (bot.player == winner) {
+                result.winningStrategy = bot.strategy;
+                result.winningSeat = bot.seat;
+            }
+        }
+        result.winningShare = (double) winner.getTerritory().size() / countLand(game);
+        result.durationNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    private static void playRound (Game game, List<Bot> bots, SplittableRandom random, GameResult result) {
+        List<Bot> order = new ArrayList<>(bots);
+        Collections.shuffle(order, new Random(random.nextLong()));
+        for (Bot bot : order) {
+            game.adjustPlayerFunds(bot.player, INCOME);
+        }
+        for (Bot bot : order) {
+            bot.takeTurn(game, bots, random, result);
+        }
+        //a front end posts the board once every player has moved
+        game.getMapString();
+    }
+
+    private static int countLand (Game game) {
+        int land = 0, size = game.getMap().getWidth() * game.getMap().getHeight();
+        for (int i = 0; i < size; i++) {
+            if (game.getMap().isLand(i)) {
+                land++;
+            }
+        }
+        return land;
+    }
+
+    private static void report (Settings settings, int parallelism, List<GameResult> results, long wallNanos) {
+        int[] strategyWins = new int[Strategy.values().length], seatWins = new int[settings.players];
+        long[] latencies;
+        long expansions = 0, gameNanos = 0;
+        int calls = 0, next = 0;
+        double share = 0, seconds = wallNanos / 1e9;
+
+        for (GameResult result : results) {
+            calls += result.expandCalls;
+        }
+        latencies = new long[calls];
+        for (GameResult result : results) {
+            System.arraycopy(result.expandLatencies, 0, latencies, next, result.expandCalls);
+            next += result.expandCalls;
+            expansions += result.successfulExpansions;
+            gameNanos += result.durationNanos;
+            strategyWins[result.winningStrategy.ordinal()]++;
+            seatWins[result.winningSeat]++;
+            share += result.winningShare;
+        }
+        Arrays.sort(latencies);
+
+        System.out.printf("%d games of %d players on %s land, %d + %d rounds, %d threads%n", results.size(),
+            settings.players, settings.density, settings.establishingRounds, settings.warRounds, parallelism);
+        System.out.printf("  %.1f games/s, %.0f expansions/s, %.2f ms per game%n", results.size() / seconds,
+            expansions / seconds, gameNanos / 1e6 / results.size());
+        System.out.printf("  expand latency us: p50 %.1f, p90 %.1f, p99 %.1f, p99.9 %.1f, max %.1f (%d calls)%n",
+            percentile(latencies, 0.5), percentile(latencies, 0.9), percentile(latencies, 0.99),
+            percentile(latencies, 0.999), calls == 0 ? 0 : latencies[calls - 1] / 1e3, calls);
+        System.out.printf("  winners held %.1f%% of the land on average%n", share * 100 / results.size());
+        for (Strategy strategy : Strategy.values()) {
+            System.out.printf("  %-12s won %5.1f%%%n", strategy, strategyWins[strategy.ordinal()] * 100.0
+                / results.size());
+        }
+        //seats are only listed for classic games, where there are few enough of them to read
+        if (settings.players <= 26) {
+            StringBuilder seats = new StringBuilder("  wins by seat:");
+            for (int seat = 0; seat < settings.players; seat++) {
+                seats.append(' ').append(seatWins[seat]);
+            }
+            System.out.println(seats);
+        }
+    }
+
+    /**
+     * @return the latency below which the given fraction of calls fell, in microseconds
+     */
+    private static double percentile (long[] sortedLatencies, double fraction) {
+        if (sortedLatencies.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(fraction * sortedLatencies.length) - 1;
+        return sortedLatencies[Math.max(0, rank)] / 1e3;
+    }
+
+    /**
+     * Plays one game as a fork/join task.
+     */
+    private static final class SimulatedGame extends RecursiveTask<GameResult> {
+        private static final long serialVersionUID = 1L;
+
+        private final Settings settings;
+        private final long seed;
+
+        private SimulatedGame (Settings settings, long seed) {
+            this.settings = settings;
+            this.seed = seed;
+        }
+
+        @Override
+        protected GameResult compute () {
+            return play(settings, seed);
+        }
+    }
+
+    /**
+     * A scripted player.
+     */
+    private static final class Bot {
+        private final Player player;
+        private final Strategy strategy;
+        private final int seat;
+        private int lastTerritory;
+
+        private Bot (Player player, Strategy strategy, int seat) {
+            this.player = player;
+            this.strategy = strategy;
+            this.seat = seat;
+        }
+
+        private void takeTurn (Game game, List<Bot> bots, SplittableRandom random, GameResult result) {
+            int territory = player.getTerritory().size(), units = player.getExpansionFund();
+
+            if (game.getGameStage() == 2) {
+                negotiate(game, bots, random, territory);
+            }
+            if (strategy == Strategy.OPPORTUNIST && units < INCOME * 3) {
+                units = 0;
+            }
+            if (units > 0) {
+                long start = System.nanoTime();
+                ExpansionReport report = game.expand(player, units);
+                result.recordExpand(System.nanoTime() - start, report);
+            }
+            lastTerritory = player.getTerritory().size();
+        }
+
+        private void negotiate (Game game, List<Bot> bots, SplittableRandom random, int territory) {
+            Player target;
+            switch (strategy) {
+                case EXPANDER:
+                    makePeace(game);
+                    break;
+                case AGGRESSOR:
+                    target = game.getLeaderboard().top(1).get(0);
+                    if (target == player) {
+                        target = bots.get(random.nextInt(bots.size())).player;
+                    }
+                    if (!player.getEnemyMap().containsKey(target.getId())) {
+                        game.declareWar(player, target);
+                    }
+                    break;
+                case OPPORTUNIST:
+                    if (territory < lastTerritory) {
+                        makePeace(game);
+                    } else if (random.nextInt(3) == 0) {
+                        target = bots.get(random.nextInt(bots.size())).player;
+                        if (target.getTerritory().size() < territory) {
+                            game.declareWar(player, target);
+                        }
+                    }
+                    break;
+            }
+        }
+
+        private void makePeace (Game game) {
+            for (Player enemy : new ArrayList<>(player.getEnemyMap().values())) {
+                game.petitionPeace(player, enemy);
+            }
+        }
+    }
+}
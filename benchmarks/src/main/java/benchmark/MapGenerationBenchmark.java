@@ -0,0 +1,60 @@
+package benchmark;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import game.Game;
+import map.Map;
+import map.MapGenerator;
+import map.NoiseMapGenerator;
+import map.ShoreGrowthGenerator;
+
+/**
+ * Measures {@link Map} construction, which generates spawn points and fills the board with land.  By default the
+ * map size is derived from the player count, so sweeping players sweeps map sizes.  A minimum height of 578 gives
+ * maps of about a million cells.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MapGenerationBenchmark {
+
+    @Param({"4", "12", "26"})
+    public int players;
+
+    @Param({"SPARSE", "NORMAL", "DENSE"})
+    public Game.LandDensity density;
+
+    @Param({"0", "578"})
+    public int minHeight;
+
+    @Param({"shore", "noise"})
+    public String generator;
+
+    private MapGenerator mapGenerator;
+
+    @Setup
+    public void setUp () {
+        mapGenerator = generator.equals("noise") ? new NoiseMapGenerator() : new ShoreGrowthGenerator();
+    }
+
+    @Benchmark
+    public Map generateMap () {
+        return new Map(players, density.getLandRatio(), minHeight, mapGenerator, new SplittableRandom());
+    }
+}
@@ -0,0 +1,96 @@
+package benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import game.Game;
+import game.Player;
+import map.Map;
+import map.MapCell;
+
+/**
+ * Measures {@link Map#toString()}, which backs {@link Game#getMapString()}, on a board where every player owns
+ * some territory.  Renders are cached, so the map is measured both unchanged and with one row marked dirty before
+ * each render, along with streaming the rendering into a buffer.  The delta a client one version behind is sent
+ * for the same change is measured alongside.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MapRenderBenchmark {
+
+    @Param({"4", "12", "26", "1000"})
+    public int players;
+
+    @Param({"NORMAL"})
+    public Game.LandDensity density;
+
+    private Map map;
+    private MapCell unclaimedCell;
+    private ByteBuffer buffer;
+    private Player viewer;
+
+    @Setup(Level.Trial)
+    public void setUp () {
+        Game game = BenchmarkGames.startedGame(players, density, 1);
+        BenchmarkGames.fundPlayers(game, 16);
+        for (Player player : game.getPlayers()) {
+            game.expand(player, 16);
+        }
+        map = game.getMap();
+        viewer = game.getPlayers().iterator().next();
+        for (int i = 0; i < map.getWidth() * map.getHeight() && unclaimedCell == null; i++) {
+            if (map.getOwnerId(i) == MapCell.LAND) {
+                unclaimedCell = map.getCell(i);
+            }
+        }
+        buffer = ByteBuffer.allocateDirect(map.getRenderLength());
+    }
+
+    @Benchmark
+    public String render () {
+        return map.toString();
+    }
+
+    @Benchmark
+    public String renderDirtyRow () {
+        //rewrites the cell's current state, which marks its row dirty without changing the map
+        unclaimedCell.makeUnclaimedLand();
+        return map.toString();
+    }
+
+    @Benchmark
+    public byte[] encodeUpdateDirtyCell () {
+        long clientVersion = map.getVersion();
+        unclaimedCell.makeUnclaimedLand();
+        return map.encodeUpdate(clientVersion);
+    }
+
+    @Benchmark
+    public String renderAroundPlayer () {
+        return map.renderAround(viewer, 40, 12);
+    }
+
+    @Benchmark
+    public ByteBuffer renderToBuffer () {
+        buffer.clear();
+        map.renderTo(buffer);
+        return buffer;
+    }
+}
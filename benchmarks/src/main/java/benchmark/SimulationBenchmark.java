@@ -0,0 +1,49 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import game.Game;
+
+/**
+ * Measures a complete game played by the bots of {@link GameSimulator}, from recruitment through map generation
+ * and both stages, as an end to end measure of the engine.  Every invocation plays a different seed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SimulationBenchmark {
+
+    @Param({"4", "12", "26"})
+    public int players;
+
+    @Param({"NORMAL"})
+    public Game.LandDensity density;
+
+    private GameSimulator.Settings settings;
+    private long seed;
+
+    @Setup
+    public void setUp () {
+        settings = new GameSimulator.Settings(players, density, 10, 30);
+    }
+
+    @Benchmark
+    public GameSimulator.GameResult playGame () {
+        return GameSimulator.play(settings, seed++);
+    }
+}
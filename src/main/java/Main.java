@@ -72,9 +72,9 @@ public class Main {
 //        sb.append(player.getUsername()).append(" (").append((char)player.getId().intValue()).append(")");
 //        sb.append(" attempted to expand ").append(report.expansionsAttempted).append(" time(s).").append(System.lineSeparator());
 //        sb.append("They succeeded ").append(report.successfulExpansions).append(" time(s).").append(System.lineSeparator());
-//        sb.append("They claimed ").append(report.territoryGained.size()).append(" new cells.").append(System.lineSeparator());
-//        sb.append("They improved ").append(report.territoryImproved.size()).append(" of their cells.").append(System.lineSeparator());
-//        sb.append("They attacked ").append(report.territoryWeakened.size()).append(" enemy cells.").append(System.lineSeparator());
+//        sb.append("They claimed ").append(report.count(ExpansionReport.Outcome.GAINED)).append(" new cells.").append(System.lineSeparator());
+//        sb.append("They improved ").append(report.count(ExpansionReport.Outcome.IMPROVED)).append(" of their cells.").append(System.lineSeparator());
+//        sb.append("They attacked ").append(report.count(ExpansionReport.Outcome.WEAKENED)).append(" enemy cells.").append(System.lineSeparator());
 //        sb.append("They now control ").append(player.getTerritory().size()).append(" cells.").append(System.lineSeparator());
 //        System.out.println(sb);
 //    }
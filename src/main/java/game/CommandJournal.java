@@ -0,0 +1,759 @@
+package game;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of the commands run against the games of a {@link GameRegistry}, written ahead of each
+ * command so that a game can be rebuilt after a crash by loading its latest {@link GameSnapshot} and replaying the
+ * commands journaled since.  Commands that draw random values record the seed their stream was reset to before
+ * they ran, so a replayed command draws exactly what the original did.
+ * <br>
+ * Appending never waits for the disk.  Records are gathered in memory and a single flusher thread writes and
+ * syncs everything gathered since its last sync in one go, so however many commands arrive during a sync they
+ * all share the next one.  The future returned by an append completes once its record is on disk.  Futures are
+ * completed on the flusher thread, so actions chained to them shouldn't block.
+ * <br>
+ * The journal is split into segment files named after the sequence of their first record, and a new segment is
+ * started once the current one passes a size limit.  Once a game is saved, its records up to the save are
+ * checkpointed: finished segments holding only checkpointed records are deleted, and ones where most records are
+ * checkpointed are rewritten without them.  Compacting is left to a thread of its own, so checkpointing never
+ * waits for the disk either.  Checkpoints are kept in a file next to the segments, written before any segment is
+ * compacted, so they still count after the journal is reopened.
+ */
+public class CommandJournal implements Closeable {
+    private static final String SEGMENT_PREFIX = "journal-", SEGMENT_SUFFIX = ".log", COMPACT_SUFFIX = ".compact",
+        CHECKPOINTS = "checkpoints";
+    //the length and checksum ahead of every record body
+    private static final int RECORD_HEADER = 8;
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final Object appendLock;
+    //segments in order of sequence, the last being written to.  Also guards checkpoints.
+    private final ArrayList<Segment> segments;
+    private final HashMap<Long, Long> checkpoints;
+    //guards the count of checkpoints made and compacted for, which the compactor waits on
+    private final Object compactionLock;
+    private final Thread flusher, compactor;
+    private long checkpointsMade, checkpointsCompacted;
+    private boolean compactorClosed;
+    private IOException compactionFailure;
+    private ByteBuffer pending, flushing;
+    private ArrayList<CompletableFuture<Void>> waiting, completing;
+    private HashMap<Long, GameRange> pendingRanges, flushingRanges;
+    private long nextSequence;
+    private FileChannel channel;
+    private boolean closed;
+    private IOException failure;
+
+    /**
+     * Opens the journal in a directory, creating the directory if needed.  Existing segments are scanned, and a
+     * record left half written by a crash at the end of the last segment is cut off.  Checkpoints saved before the
+     * journal was last closed are read back, and the segments they cover are compacted again in the background.
+     * @param directory the directory segments are kept in
+     * @param segmentBytes the size a segment may grow to before a new one is started
+     */
+    public CommandJournal(Path directory, long segmentBytes) throws IOException {
+        if (segmentBytes < 1) {
+            throw new IllegalArgumentException("segmentBytes must be positive");
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.appendLock = new Object();
+        this.segments = new ArrayList<>();
+        this.checkpoints = new HashMap<>();
+        this.compactionLock = new Object();
+        this.pending = ByteBuffer.allocate(4096);
+        this.flushing = ByteBuffer.allocate(4096);
+        this.waiting = new ArrayList<>();
+        this.completing = new ArrayList<>();
+        this.pendingRanges = new HashMap<>();
+        this.flushingRanges = new HashMap<>();
+        this.nextSequence = 1;
+
+        Files.createDirectories(directory);
+        //a checkpoint file that never finished being written; the one it was to replace is still in place
+        Files.deleteIfExists(directory.resolve(CHECKPOINTS + COMPACT_SUFFIX));
+        readCheckpoints();
+        ArrayList<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*")) {
+            for (Path path : files) {
+                if (path.getFileName().toString().endsWith(SEGMENT_SUFFIX)) {
+                    paths.add(path);
+                } else if (path.getFileName().toString().endsWith(COMPACT_SUFFIX)) {
+                    //a rewrite that never finished; the segment it was made from is still in place
+                    Files.delete(path);
+                }
+            }
+        }
+        //sequences are zero padded, so names sort in sequence order
+        paths.sort(null);
+        for (Path path : paths) {
+            Segment segment = scan(path);
+            segments.add(segment);
+            nextSequence = Math.max(nextSequence, segment.lastSequence + 1);
+        }
+        if (segments.isEmpty()) {
+            segments.add(new Segment(segmentPath(nextSequence)));
+        }
+        Segment current = segments.get(segments.size() - 1);
+        channel = FileChannel.open(current.path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.truncate(current.size);
+        channel.position(current.size);
+
+        this.flusher = new Thread(this::flushContinuously, "command-journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+        this.compactor = new Thread(this::compactContinuously, "command-journal-compactor");
+        compactor.setDaemon(true);
+        if (!checkpoints.isEmpty()) {
+            checkpointsMade++;
+        }
+        compactor.start();
+    }
+
+    /**
+     * Appends a record for a game.  The record is given the next sequence before this returns.
+     * @return a future completed once the record is on disk, or exceptionally if writing it failed
+     * @throws UncheckedIOException if an earlier write failed, after which nothing more can be journaled
+     */
+    CompletableFuture<Void> append(long gameId, Record record) {
+        CompletableFuture<Void> durable = new CompletableFuture<>();
+        synchronized (appendLock) {
+            if (closed) {
+                throw new IllegalStateException("The journal has been closed");
+            } else if (failure != null) {
+                throw new UncheckedIOException("The journal can no longer be written", failure);
+            }
+            record.gameId = gameId;
+            record.sequence = nextSequence++;
+            if (pending.remaining() < record.length()) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2,
+                    pending.position() + record.length()));
+                pending = larger.put(pending.flip());
+            }
+            record.writeTo(pending);
+            pendingRanges.computeIfAbsent(gameId, id -> new GameRange()).add(record.sequence);
+            waiting.add(durable);
+            appendLock.notify();
+        }
+        return durable;
+    }
+
+    /**
+     * Applies every record journaled for a game after the last one the game has seen, in order.  A command that
+     * failed when it first ran fails again when replayed, leaving the game as the original left it, so failures
+     * are skipped.
+     * @return the number of records applied
+     */
+    int replay(long gameId, Game game) throws IOException {
+        int applied = 0;
+        synchronized (segments) {
+            for (Segment segment : segments) {
+                if (segment.lastSequence <= game.getJournalSequence() || !segment.games.containsKey(gameId)) {
+                    continue;
+                }
+                ByteBuffer in = map(segment);
+                Record record;
+                while ((record = Record.readFrom(in)) != null) {
+                    if (record.gameId == gameId && record.sequence > game.getJournalSequence()) {
+                        try {
+                            record.applyTo(game);
+                        } catch (RuntimeException e) {
+                            //the original command threw the same way
+                        }
+                        game.setJournalSequence(record.sequence);
+                        applied++;
+                    }
+                }
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * Marks a game's records up to a sequence as no longer needed, because a snapshot holding their effects is
+     * safely on disk.  The checkpoint is saved and the finished segments are compacted on the compactor thread,
+     * so this returns without touching the disk.
+     */
+    public void checkpoint(long gameId, long sequence) {
+        synchronized (segments) {
+            checkpoints.merge(gameId, sequence, Math::max);
+        }
+        synchronized (compactionLock) {
+            checkpointsMade++;
+            compactionLock.notifyAll();
+        }
+    }
+
+    /**
+     * Waits until the segments have been compacted for every checkpoint made before this was called.
+     * @throws IOException if the last compaction failed
+     */
+    void awaitCompaction() throws IOException, InterruptedException {
+        synchronized (compactionLock) {
+            long made = checkpointsMade;
+            while (checkpointsCompacted < made && !compactorClosed) {
+                compactionLock.wait();
+            }
+            if (compactionFailure != null) {
+                throw compactionFailure;
+            }
+        }
+    }
+
+    /**
+     * @return the number of segment files the journal is spread over
+     */
+    public int getSegmentCount() {
+        synchronized (segments) {
+            return segments.size();
+        }
+    }
+
+    /**
+     * Stops accepting records, waits for those already appended to reach the disk and closes the journal.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (compactionLock) {
+            compactorClosed = true;
+            compactionLock.notifyAll();
+        }
+        synchronized (appendLock) {
+            closed = true;
+            appendLock.notifyAll();
+        }
+        try {
+            compactor.join();
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    /**
+     * Writes and syncs the gathered records until the journal is closed.  Records appended while a batch is being
+     * synced are gathered for the next batch.
+     */
+    private void flushContinuously() {
+        ByteBuffer batch;
+        ArrayList<CompletableFuture<Void>> durables;
+        HashMap<Long, GameRange> ranges;
+        long lastSequence;
+
+        while (true) {
+            synchronized (appendLock) {
+                while (pending.position() == 0 && !closed) {
+                    try {
+                        appendLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (pending.position() == 0) {
+                    return;
+                }
+                batch = pending;
+                pending = flushing;
+                flushing = batch;
+                durables = waiting;
+                waiting = completing;
+                completing = durables;
+                ranges = pendingRanges;
+                pendingRanges = flushingRanges;
+                flushingRanges = ranges;
+                lastSequence = nextSequence - 1;
+            }
+
+            try {
+                batch.flip();
+                while (batch.hasRemaining()) {
+                    channel.write(batch);
+                }
+                channel.force(false);
+                synchronized (segments) {
+                    Segment current = segments.get(segments.size() - 1);
+                    current.size = channel.position();
+                    current.add(ranges);
+                    if (current.size >= segmentBytes) {
+                        Segment next = new Segment(segmentPath(lastSequence + 1));
+                        FileChannel nextChannel = FileChannel.open(next.path, StandardOpenOption.CREATE_NEW,
+                            StandardOpenOption.WRITE);
+                        channel.close();
+                        channel = nextChannel;
+                        segments.add(next);
+                    }
+                }
+                for (CompletableFuture<Void> durable : durables) {
+                    durable.complete(null);
+                }
+            } catch (IOException e) {
+                synchronized (appendLock) {
+                    failure = e;
+                }
+                for (CompletableFuture<Void> durable : durables) {
+                    durable.completeExceptionally(e);
+                }
+            }
+            batch.clear();
+            durables.clear();
+            ranges.clear();
+        }
+    }
+
+    /**
+     * Compacts the finished segments whenever a checkpoint is made, until the journal is closed.  A checkpoint
+     * made while compacting is picked up by the next round, and one made before closing is still saved.  A
+     * compaction that fails leaves the segments it didn't get to as they were, to be tried again on the next
+     * checkpoint.
+     */
+    private void compactContinuously() {
+        long made;
+
+        while (true) {
+            synchronized (compactionLock) {
+                while (checkpointsCompacted == checkpointsMade && !compactorClosed) {
+                    try {
+                        compactionLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (checkpointsCompacted == checkpointsMade) {
+                    return;
+                }
+                made = checkpointsMade;
+            }
+
+            IOException failed = null;
+            try {
+                compact();
+            } catch (IOException e) {
+                failed = e;
+            }
+            synchronized (compactionLock) {
+                compactionFailure = failed;
+                checkpointsCompacted = made;
+                compactionLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Saves the checkpoints, then deletes or rewrites the finished segments they make mostly unneeded.  Segments
+     * are only picked and swapped under the segment lock; they are read and rewritten outside it, so compacting
+     * never holds up the flusher between syncs.
+     */
+    private void compact() throws IOException {
+        ArrayList<Segment> emptied = new ArrayList<>(), sparse = new ArrayList<>();
+        HashMap<Long, Long> checkpointed;
+
+        synchronized (segments) {
+            //a game no segment holds has nothing left to checkpoint, so it is forgotten
+            checkpoints.keySet().removeIf(this::isForgotten);
+            checkpointed = new HashMap<>(checkpoints);
+        }
+        writeCheckpoints(checkpointed);
+        synchronized (segments) {
+            //the last segment is still being written, so it is left alone
+            Iterator<Segment> finished = segments.subList(0, segments.size() - 1).iterator();
+            while (finished.hasNext()) {
+                Segment segment = finished.next();
+                int live = segment.countLiveRecords(checkpointed);
+                if (live == 0) {
+                    emptied.add(segment);
+                    finished.remove();
+                } else if (live * 2 < segment.records) {
+                    sparse.add(segment);
+                }
+            }
+        }
+        for (Segment segment : emptied) {
+            Files.delete(segment.path);
+        }
+        for (Segment segment : sparse) {
+            Segment rewritten = rewrite(segment, checkpointed);
+            synchronized (segments) {
+                Files.move(rewritten.path, segment.path, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+                segment.games = rewritten.games;
+                segment.records = rewritten.records;
+                segment.size = rewritten.size;
+            }
+        }
+    }
+
+    /**
+     * @return true if no segment holds any of a game's records
+     */
+    private boolean isForgotten(long gameId) {
+        for (Segment segment : segments) {
+            if (segment.games.containsKey(gameId)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the checkpoint of each game next to the segments and moves it over the last one in a single move, so
+     * a crash while writing leaves the last checkpoints in place.  The file is a count of games, the id and
+     * checkpoint of each, and a checksum of all that.
+     */
+    private void writeCheckpoints(HashMap<Long, Long> checkpointed) throws IOException {
+        Path next = directory.resolve(CHECKPOINTS + COMPACT_SUFFIX);
+        ByteBuffer out = ByteBuffer.allocate(4 + checkpointed.size() * 16 + 4);
+        CRC32 checksum = new CRC32();
+
+        out.putInt(checkpointed.size());
+        for (Map.Entry<Long, Long> entry : checkpointed.entrySet()) {
+            out.putLong(entry.getKey());
+            out.putLong(entry.getValue());
+        }
+        checksum.update(out.duplicate().flip());
+        out.putInt((int) checksum.getValue());
+        try (FileChannel file = FileChannel.open(next, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.flip();
+            while (out.hasRemaining()) {
+                file.write(out);
+            }
+            file.force(true);
+        }
+        Files.move(next, directory.resolve(CHECKPOINTS), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads back the checkpoints last written.  A missing or damaged file leaves no checkpoints, which only means
+     * the segments aren't compacted until the games are saved again.
+     */
+    private void readCheckpoints() throws IOException {
+        Path path = directory.resolve(CHECKPOINTS);
+        if (!Files.exists(path)) {
+            return;
+        }
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(path));
+        CRC32 checksum = new CRC32();
+        if (in.remaining() < 8) {
+            return;
+        }
+        int games = in.getInt();
+        if (games < 0 || in.remaining() != games * 16L + 4) {
+            return;
+        }
+        checksum.update(in.duplicate().position(0).limit(in.limit() - 4));
+        if ((int) checksum.getValue() != in.getInt(in.limit() - 4)) {
+            return;
+        }
+        for (int i = 0; i < games; i++) {
+            checkpoints.put(in.getLong(), in.getLong());
+        }
+    }
+
+    /**
+     * Reads the records of a segment to learn which games it holds, stopping at the first record that is cut off
+     * or fails its checksum.
+     */
+    private static Segment scan(Path path) throws IOException {
+        Segment segment = new Segment(path);
+        ByteBuffer in;
+        Record record;
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            in = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+        }
+        while ((record = Record.readFrom(in)) != null) {
+            segment.add(record.gameId, record.sequence);
+        }
+        segment.size = in.position();
+        return segment;
+    }
+
+    /**
+     * Writes a copy of a finished segment without its checkpointed records next to it.  The copy then replaces
+     * the segment in a single move, so a crash while compacting leaves one or the other in place.
+     * @param checkpointed the checkpoint of each game as the segment was picked for compaction
+     * @return the copy, not yet in place of the segment
+     */
+    private static Segment rewrite(Segment segment, HashMap<Long, Long> checkpointed) throws IOException {
+        Path compacted = segment.path.resolveSibling(segment.path.getFileName() + COMPACT_SUFFIX);
+        ByteBuffer in = map(segment), out = ByteBuffer.allocate((int) segment.size);
+        Segment rewritten = new Segment(compacted);
+        int start;
+        Record record;
+
+        while (true) {
+            start = in.position();
+            if ((record = Record.readFrom(in)) == null) {
+                break;
+            }
+            if (record.sequence > checkpointed.getOrDefault(record.gameId, 0L)) {
+                out.put(in.duplicate().position(start).limit(in.position()));
+                rewritten.add(record.gameId, record.sequence);
+            }
+        }
+        try (FileChannel file = FileChannel.open(compacted, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.flip();
+            while (out.hasRemaining()) {
+                file.write(out);
+            }
+            file.force(true);
+        }
+        rewritten.size = out.limit();
+        return rewritten;
+    }
+
+    private static ByteBuffer map(Segment segment) throws IOException {
+        try (FileChannel file = FileChannel.open(segment.path, StandardOpenOption.READ)) {
+            return file.map(FileChannel.MapMode.READ_ONLY, 0, segment.size);
+        }
+    }
+
+    private Path segmentPath(long firstSequence) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * A journaled command.  Commands that draw random values carry the seed their stream was reset to, so
+     * applying the record resets the stream to the same seed before running the command again.
+     */
+    static final class Record {
+        private static final byte ADD_PLAYER = 1, EXPAND = 2, DECLARE_WAR = 3, PETITION_PEACE = 4,
+            ADJUST_FUNDS = 5, ADVANCE_STAGE = 6, SAVE = 7;
+        //sequence, game id, type, player id, value and seed
+        private static final int FIXED_LENGTH = 8 + 8 + 1 + 4 + 4 + 8;
+
+        private final byte type;
+        //the player's id, or the initiator's for war and peace
+        private final int playerId;
+        //the number of expansions, the funds added or the target's id, depending on the type
+        private final int value;
+        private final long seed, externalId;
+        private final byte[] username;
+        private long sequence, gameId;
+
+        private Record(byte type, int playerId, int value, long seed, long externalId, byte[] username) {
+            this.type = type;
+            this.playerId = playerId;
+            this.value = value;
+            this.seed = seed;
+            this.externalId = externalId;
+            this.username = username;
+        }
+
+        /**
+         * @param seed the seed the game's stream was reset to, which new players' streams are split from
+         */
+        static Record addPlayer(String username, long externalId, long seed) {
+            return new Record(ADD_PLAYER, 0, 0, seed, externalId, username.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * @param seed the seed the player's stream was reset to
+         */
+        static Record expand(int playerId, int timesToExpand, long seed) {
+            return new Record(EXPAND, playerId, timesToExpand, seed, 0, null);
+        }
+
+        static Record declareWar(int initiatorId, int targetId) {
+            return new Record(DECLARE_WAR, initiatorId, targetId, 0, 0, null);
+        }
+
+        static Record petitionPeace(int initiatorId, int targetId) {
+            return new Record(PETITION_PEACE, initiatorId, targetId, 0, 0, null);
+        }
+
+        static Record adjustPlayerFunds(int playerId, int fundsToAdd) {
+            return new Record(ADJUST_FUNDS, playerId, fundsToAdd, 0, 0, null);
+        }
+
+        /**
+         * @param seed the seed the game's stream was reset to, which a map generated on starting is drawn from
+         */
+        static Record advanceGameStage(long seed) {
+            return new Record(ADVANCE_STAGE, 0, 0, seed, 0, null);
+        }
+
+        /**
+         * A save of the game, which reseeds its streams and rebuilds its territories whether or not the snapshot
+         * made it to disk.
+         */
+        static Record save() {
+            return new Record(SAVE, 0, 0, 0, 0, null);
+        }
+
+        long getSequence() {
+            return sequence;
+        }
+
+        private void applyTo(Game game) {
+            switch (type) {
+                case ADD_PLAYER:
+                    game.setRandom(new SplittableRandom(seed));
+                    game.addPlayer(new Player(new String(username, StandardCharsets.UTF_8), externalId));
+                    break;
+                case EXPAND:
+                    Player player = game.getPlayer(playerId);
+                    player.setRandom(new SplittableRandom(seed));
+                    game.expand(player, value);
+                    break;
+                case DECLARE_WAR:
+                    game.declareWar(game.getPlayer(playerId), game.getPlayer(value));
+                    break;
+                case PETITION_PEACE:
+                    game.petitionPeace(game.getPlayer(playerId), game.getPlayer(value));
+                    break;
+                case ADJUST_FUNDS:
+                    game.adjustPlayerFunds(game.getPlayer(playerId), value);
+                    break;
+                case ADVANCE_STAGE:
+                    game.setRandom(new SplittableRandom(seed));
+                    game.advanceGameStage();
+                    break;
+                default:
+                    GameSnapshot.normalize(game);
+                    break;
+            }
+        }
+
+        private int length() {
+            return RECORD_HEADER + FIXED_LENGTH + (username == null ? 0 : 8 + 2 + username.length);
+        }
+
+        private void writeTo(ByteBuffer out) {
+            int start = out.position();
+            CRC32 checksum = new CRC32();
+
+            out.position(start + RECORD_HEADER);
+            out.putLong(sequence);
+            out.putLong(gameId);
+            out.put(type);
+            out.putInt(playerId);
+            out.putInt(value);
+            out.putLong(seed);
+            if (username != null) {
+                out.putLong(externalId);
+                out.putShort((short) username.length);
+                out.put(username);
+            }
+            checksum.update(out.duplicate().position(start + RECORD_HEADER).limit(out.position()));
+            out.putInt(start, out.position() - start - RECORD_HEADER);
+            out.putInt(start + 4, (int) checksum.getValue());
+        }
+
+        /**
+         * Reads the record at the buffer's position and moves past it.
+         * @return the record, or null if the buffer ends, or the record is cut off or fails its checksum, in
+         *          which case the position is left where it was
+         */
+        private static Record readFrom(ByteBuffer in) {
+            int start = in.position();
+            if (in.remaining() < RECORD_HEADER + FIXED_LENGTH) {
+                return null;
+            }
+            int length = in.getInt(), expected = in.getInt();
+            if (length < FIXED_LENGTH || length > in.remaining()) {
+                in.position(start);
+                return null;
+            }
+            ByteBuffer body = in.slice().limit(length);
+            CRC32 checksum = new CRC32();
+            checksum.update(body.duplicate());
+            if ((int) checksum.getValue() != expected) {
+                in.position(start);
+                return null;
+            }
+            in.position(in.position() + length);
+
+            long sequence = body.getLong(), gameId = body.getLong();
+            byte type = body.get();
+            int playerId = body.getInt(), value = body.getInt();
+            long seed = body.getLong(), externalId = 0;
+            byte[] username = null;
+            if (type == ADD_PLAYER) {
+                externalId = body.getLong();
+                username = new byte[body.getShort()];
+                body.get(username);
+            }
+            Record record = new Record(type, playerId, value, seed, externalId, username);
+            record.sequence = sequence;
+            record.gameId = gameId;
+            return record;
+        }
+    }
+
+    /**
+     * The records a segment holds, counted per game.
+     */
+    private static final class Segment {
+        private final Path path;
+        private HashMap<Long, GameRange> games;
+        private int records;
+        private long size, lastSequence;
+
+        private Segment(Path path) {
+            this.path = path;
+            this.games = new HashMap<>();
+        }
+
+        private void add(long gameId, long sequence) {
+            games.computeIfAbsent(gameId, id -> new GameRange()).add(sequence);
+            records++;
+            lastSequence = Math.max(lastSequence, sequence);
+        }
+
+        private void add(HashMap<Long, GameRange> ranges) {
+            for (Map.Entry<Long, GameRange> entry : ranges.entrySet()) {
+                GameRange range = games.computeIfAbsent(entry.getKey(), id -> new GameRange());
+                range.count += entry.getValue().count;
+                range.last = Math.max(range.last, entry.getValue().last);
+                records += entry.getValue().count;
+                lastSequence = Math.max(lastSequence, entry.getValue().last);
+            }
+        }
+
+        /**
+         * Counts the records of the games that have any record after their checkpoint.  A game's records are
+         * either all counted or none are, so this overestimates until the segment is rewritten.
+         */
+        private int countLiveRecords(HashMap<Long, Long> checkpoints) {
+            int live = 0;
+            for (Map.Entry<Long, GameRange> entry : games.entrySet()) {
+                if (entry.getValue().last > checkpoints.getOrDefault(entry.getKey(), 0L)) {
+                    live += entry.getValue().count;
+                }
+            }
+            return live;
+        }
+    }
+
+    private static final class GameRange {
+        private long last;
+        private int count;
+
+        private void add(long sequence) {
+            last = Math.max(last, sequence);
+            count++;
+        }
+    }
+}
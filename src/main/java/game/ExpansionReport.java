@@ -1,23 +1,135 @@
 package game;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
 
+import map.Map;
 import map.MapCell;
 
+/**
+ * The outcome of a call to {@link Game#expand(Player, int)}.  Cells are recorded as packed map indices rather
+ * than cell references, so a report costs a few arrays no matter how many cells were touched, and it doesn't
+ * change as the map does.  Views of the cells are only created when they are asked for.
+ */
 public class ExpansionReport {
     public Player player;
-    public ArrayList<MapCell> territoryGained;
-    public ArrayList<MapCell> territoryWeakened;
-    public ArrayList<MapCell> territoryImproved;
-    public Integer expansionsAttempted, successfulExpansions;
+    public int expansionsAttempted, successfulExpansions;
+    private final Map map;
+    //each entry is a cell index shifted left by two, with the ordinal of its Outcome in the low bits
+    private int[] entries;
+    private int entryCount;
+    private final int[] outcomeCounts;
+    //the map version that includes every change made by the expansion
+    private long mapVersion;
 
-    public ExpansionReport(Player player) {
+    public enum Outcome {
+        GAINED,
+        WEAKENED,
+        IMPROVED;
+    }
+
+    public ExpansionReport(Player player, Map map) {
         this.player = player;
-        this.territoryGained = new ArrayList<>();
-        this.territoryWeakened = new ArrayList<>();
-        this.territoryImproved = new ArrayList<>();
+        this.map = map;
+        this.entries = new int[16];
+        this.outcomeCounts = new int[Outcome.values().length];
         this.expansionsAttempted = 0;
         this.successfulExpansions = 0;
     }
 
+    void record(Outcome outcome, MapCell cell) {
+        if (entryCount == entries.length) {
+            entries = Arrays.copyOf(entries, entryCount * 2);
+        }
+        entries[entryCount++] = cell.getIndex() << 2 | outcome.ordinal();
+        outcomeCounts[outcome.ordinal()]++;
+    }
+
+    /**
+     * @return the version of the map that first holds every cell the expansion changed.  Clients holding an
+     *          earlier version can fetch the changes with {@link Map#encodeUpdate(long)}.
+     */
+    public long getMapVersion() {
+        return mapVersion;
+    }
+
+    void setMapVersion(long mapVersion) {
+        this.mapVersion = mapVersion;
+    }
+
+    public int count(Outcome outcome) {
+        return outcomeCounts[outcome.ordinal()];
+    }
+
+    /**
+     * Streams the map indices of the cells with the given outcome, in the order they were expanded onto.
+     */
+    public PrimitiveIterator.OfInt cellIndices(Outcome outcome) {
+        return new PrimitiveIterator.OfInt() {
+            private int next = advance(0);
+
+            private int advance(int from) {
+                while (from < entryCount && (entries[from] & 3) != outcome.ordinal()) {
+                    from++;
+                }
+                return from;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next < entryCount;
+            }
+
+            @Override
+            public int nextInt() {
+                if (next >= entryCount) {
+                    throw new NoSuchElementException();
+                }
+                int index = entries[next] >>> 2;
+                next = advance(next + 1);
+                return index;
+            }
+        };
+    }
+
+    /**
+     * Streams views of the cells with the given outcome, in the order they were expanded onto.  The views
+     * show the current state of the map, not the state at the time of the expansion.
+     */
+    public Iterator<MapCell> cells(Outcome outcome) {
+        PrimitiveIterator.OfInt indices = cellIndices(outcome);
+        return new Iterator<MapCell>() {
+            @Override
+            public boolean hasNext() {
+                return indices.hasNext();
+            }
+
+            @Override
+            public MapCell next() {
+                return map.getCell(indices.nextInt());
+            }
+        };
+    }
+
+    public List<MapCell> getTerritoryGained() {
+        return materialize(Outcome.GAINED);
+    }
+
+    public List<MapCell> getTerritoryWeakened() {
+        return materialize(Outcome.WEAKENED);
+    }
+
+    public List<MapCell> getTerritoryImproved() {
+        return materialize(Outcome.IMPROVED);
+    }
+
+    private List<MapCell> materialize(Outcome outcome) {
+        List<MapCell> cells = new ArrayList<>(count(outcome));
+        cells(outcome).forEachRemaining(cells::add);
+        return cells;
+    }
 }
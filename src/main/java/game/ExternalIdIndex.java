@@ -0,0 +1,75 @@
+package game;
+
+/**
+ * Finds the players of one game by external id without boxing the ids.  Ids are kept in an open-addressed table
+ * of primitive longs with linear probing, which stays at most half full.  Players are never removed from a game,
+ * so the table only ever grows.
+ */
+final class ExternalIdIndex {
+    private long[] externalIds;
+    //null marks an empty slot, so an external id of 0 needs no special case
+    private Player[] players;
+    private int size;
+
+    ExternalIdIndex() {
+        this.externalIds = new long[32];
+        this.players = new Player[32];
+    }
+
+    /**
+     * Indexes a player under their external id.  If another player already holds the id, the first player
+     * indexed keeps it.
+     */
+    void add(Player player) {
+        if (get(player.getExternalId()) != null) {
+            return;
+        }
+        if ((size + 1) * 2 > players.length) {
+            resize();
+        }
+        insert(player);
+        size++;
+    }
+
+    /**
+     * @return the player with the given external id, or null if there is none
+     */
+    Player get(long externalId) {
+        int mask = players.length - 1;
+        for (int slot = hash(externalId) & mask; players[slot] != null; slot = (slot + 1) & mask) {
+            if (externalIds[slot] == externalId) {
+                return players[slot];
+            }
+        }
+        return null;
+    }
+
+    private void insert(Player player) {
+        int mask = players.length - 1, slot = hash(player.getExternalId()) & mask;
+        while (players[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        externalIds[slot] = player.getExternalId();
+        players[slot] = player;
+    }
+
+    private void resize() {
+        Player[] old = players;
+        externalIds = new long[old.length * 2];
+        players = new Player[old.length * 2];
+        for (Player player : old) {
+            if (player != null) {
+                insert(player);
+            }
+        }
+    }
+
+    /**
+     * Spreads the bits of an id over the low bits, since external ids such as chat snowflakes are often
+     * sequential or share their low bits.
+     */
+    private static int hash(long externalId) {
+        long h = externalId * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
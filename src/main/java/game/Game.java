@@ -2,15 +2,24 @@ package game;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.stream.Collectors;
+import java.util.SplittableRandom;
 
+import map.ExpansionFrontier;
+import map.Glyphs;
+import map.IndexedCellSet;
 import map.Map;
 import map.MapCell;
 import map.MapCellComparator;
+import map.MapGenerator;
+import map.RegionLocks;
+import map.ShoreGrowthGenerator;
+import metrics.Metric;
+import metrics.Metrics;
+import metrics.MetricsSink;
 
 import static map.Map.NeighborLocation.DOWN;
 import static map.Map.NeighborLocation.LEFT;
@@ -18,16 +27,56 @@ import static map.Map.NeighborLocation.RIGHT;
 import static map.Map.NeighborLocation.UP;
 
 public class Game {
+    private static final Map.NeighborLocation[] EDGE_NEIGHBORS = {LEFT, UP, RIGHT, DOWN};
+    //expansions of at least this many units are resolved as one batch
+    private static final int BULK_EXPANSION_THRESHOLD = 64;
+    //how far from an expansion target its borders and frontiers are read, in cells
+    private static final int EXPANSION_REACH = 2;
+    //how many times a concurrent expansion looks for a new target after losing one to another thread
+    private static final int MAX_EXPANSION_RETRIES = 8;
+    //the most players a game holds, unless it is a large lobby
+    private static final int CLASSIC_MAX_PLAYERS = 26;
+    //large lobby ids run from the first id past ascii to the largest id a map can store
+    public static final int MAX_LARGE_LOBBY_PLAYERS = Short.MAX_VALUE + 1 - Glyphs.FIRST_PALETTE_ID;
+
     private HashMap<Integer, Player> idPlayerMap;
+    private ExternalIdIndex externalIdIndex;
+    private Leaderboard leaderboard;
+    //the directory the game reports its players to, and the id it is hosted under there
+    private PlayerDirectory directory;
+    private long directoryGameId;
     private Map map;
     private final LandDensity landRatio;
     private LocalDateTime startDate, endDate;
     private Integer jackpot, gameStage;
 
     private long recruitmentId = 0;
+    //the sequence of the last journal record applied to the game
+    private long journalSequence = 0;
+    private final long seed;
+    private SplittableRandom random;
+    private int concurrentTileSize = 0;
+    //0 unless the game is a large lobby
+    private int largeLobbyMaxPlayers = 0;
+    private RegionLocks regionLocks;
+    private MapGenerator mapGenerator = new ShoreGrowthGenerator();
+    private MapPool mapPool;
 
     public Game(LandDensity landRatio, int startingJackpot) {
+        this(landRatio, startingJackpot, new SplittableRandom().nextLong());
+    }
+
+    /**
+     * Creates a game whose map and expansions are all drawn from the given seed.  Two games created with the same
+     * seed, given the same players in the same order and the same commands in the same order, play out the same.
+     * @param seed the seed of the game's random stream
+     */
+    public Game(LandDensity landRatio, int startingJackpot, long seed) {
+        this.seed = seed;
+        this.random = new SplittableRandom(seed);
         this.idPlayerMap = new HashMap<>();
+        this.externalIdIndex = new ExternalIdIndex();
+        this.leaderboard = new Leaderboard();
         this.startDate = LocalDateTime.now();
         this.endDate = startDate.plusWeeks(1);
         this.jackpot = startingJackpot;
@@ -39,10 +88,92 @@ public class Game {
      * Moves the game into an active state, where players may begin claiming cells.
      * Players are spawned on the map, and given a starting expansion fund of 8 units.
      * Players are unable to attack other players until the game progresses to stage 2.
+     * The map is taken from the game's map pool if it has one, and generated otherwise.
      */
     public void startGame() {
-        this.map = new Map(idPlayerMap.size(), landRatio.getLandRatio());
+        if (mapPool != null) {
+            this.map = mapPool.take(idPlayerMap.size(), landRatio);
+        } else {
+            this.map = new Map(idPlayerMap.size(), landRatio.getLandRatio(), 0, mapGenerator, random.split());
+        }
         spawnPlayers();
+        createRegionLocks();
+        map.publishChanges();
+    }
+
+    /**
+     * Allows several threads to expand within this game at the same time.  The map is divided into square
+     * tiles, and each expansion only locks the tiles around its target, along with the players who own cells
+     * next to it, so expansions on distant parts of the map run in parallel.  Large expansions are resolved one
+     * unit at a time in this mode rather than in bulk.  This must be called before the game is shared between
+     * threads, and war and peace declarations made while expansions are running are then locked as well.
+     * Other commands, such as advancing the game stage, must still not overlap with expansions.
+     * @param tileSize the width and height of a tile, in cells.  Must be larger than 4.
+     */
+    public void enableConcurrentExpansion(int tileSize) {
+        if (tileSize <= EXPANSION_REACH * 2) {
+            throw new IllegalArgumentException("tileSize must be larger than " + EXPANSION_REACH * 2);
+        }
+        this.concurrentTileSize = tileSize;
+        createRegionLocks();
+    }
+
+    public boolean isConcurrentExpansionEnabled() {
+        return concurrentTileSize > 0;
+    }
+
+    /**
+     * Lets more than 26 players join the game, up to the given number.  Players in a large lobby aren't given
+     * ids by the first letter of their usernames; they are numbered in the order they join, starting from
+     * {@link Glyphs#FIRST_PALETTE_ID}, and the map stores owner ids wide enough to hold them.  Those ids aren't
+     * characters, so players are drawn from a palette of letters that repeats every 26 players, see
+     * {@link Glyphs}.  Clients that need to tell every player apart should keep a {@link map.MapReplica} from
+     * {@link #getMapUpdate(long)}, whose updates carry owner ids.  The map is sized for the number of players who
+     * have joined when the game starts.
+     * @param maxPlayers the most players the game can hold.  Must be between 1 and {@link #MAX_LARGE_LOBBY_PLAYERS}.
+     * @throws IllegalStateException if players have already joined, or recruitment is over
+     */
+    public void enableLargeLobby(int maxPlayers) {
+        if (maxPlayers < 1 || maxPlayers > MAX_LARGE_LOBBY_PLAYERS) {
+            throw new IllegalArgumentException("maxPlayers must be between 1 and " + MAX_LARGE_LOBBY_PLAYERS);
+        }
+        if (gameStage != 0 || !idPlayerMap.isEmpty()) {
+            throw new IllegalStateException("A large lobby must be enabled before any players join");
+        }
+        this.largeLobbyMaxPlayers = maxPlayers;
+    }
+
+    public boolean isLargeLobby() {
+        return largeLobbyMaxPlayers > 0;
+    }
+
+    /**
+     * @return the most players the game can hold
+     */
+    public int getMaxPlayers() {
+        return largeLobbyMaxPlayers > 0 ? largeLobbyMaxPlayers : CLASSIC_MAX_PLAYERS;
+    }
+
+    private void createRegionLocks() {
+        if (concurrentTileSize > 0 && map != null) {
+            regionLocks = new RegionLocks(map, concurrentTileSize, EXPANSION_REACH);
+        }
+    }
+
+    /**
+     * Sets the generator that fills the game's map with land when the game starts.  Games use a
+     * {@link ShoreGrowthGenerator} unless told otherwise.
+     */
+    public void setMapGenerator(MapGenerator mapGenerator) {
+        this.mapGenerator = mapGenerator;
+    }
+
+    /**
+     * Has the game take its map from a pool when it starts, rather than generating one.  The pool's own
+     * generator is used in place of the game's.
+     */
+    public void setMapPool(MapPool mapPool) {
+        this.mapPool = mapPool;
     }
 
     public GameReport endGame() {
@@ -65,6 +196,7 @@ public class Game {
             player.addToEastBorder(cell);
             player.addToSouthBorder(cell);
             cell.setOwnership(player);
+            evaluateFrontiers(cell, MapCell.LAND);
             player.addToExpansionFund(8);
             i++;
         }
@@ -76,18 +208,27 @@ public class Game {
      * @return the new player within the game. Null if no more players can be added.
      */
     public Player addPlayer(Player newPlayer) {
-        if (idPlayerMap.keySet().size() < 26) {
+        if (idPlayerMap.keySet().size() < getMaxPlayers()) {
             //game.Player ids are unique per game, and range from 97-122 [inclusive-inclusive] which are the ascii decimal codes for lower case letters.
             //ids are assigned first based on the first letter of the game.Player's username.  If a player has a duplicate id, then the new player
-            //is assigned the next letter of the alphabet.
+            //is assigned the next letter of the alphabet.  Players in a large lobby are numbered in the order they join instead.
             char id = newPlayer.getUsername().toLowerCase().charAt(0);
-            if (idPlayerMap.get((int)id) == null) {
+            if (largeLobbyMaxPlayers > 0) {
+                newPlayer.setId(Glyphs.FIRST_PALETTE_ID + idPlayerMap.size());
+                idPlayerMap.put(newPlayer.getId(), newPlayer);
+            } else if (idPlayerMap.get((int)id) == null) {
                 newPlayer.setId((int)id);
                 idPlayerMap.put((int)id, newPlayer);
             } else {
                 newPlayer.setId(getNextId(id));
                 idPlayerMap.put(newPlayer.getId(), newPlayer);
             }
+            newPlayer.setRandom(random.split());
+            externalIdIndex.add(newPlayer);
+            leaderboard.add(newPlayer);
+            if (directory != null) {
+                directory.add(newPlayer.getExternalId(), directoryGameId);
+            }
         } else {
             return null;
         }
@@ -113,54 +254,140 @@ public class Game {
         }
     }
 
+    /**
+     * Expands a game.Player's territory the given number of times, or as many times as their funds allow if
+     * they can't afford that many.  Each successful expansion costs one unit of the player's funds.  Large
+     * expansions are resolved in bulk by {@link #expandInBulk(Player, int)}, which follows the same rules.
+     * @param player The game.Player who is expanding
+     * @param timesToExpand The number of expansions the player would like to make
+     * @return a report of the cells the player gained, weakened and improved.  The changes are published as a new
+     *          map version before it is returned.
+     */
     public ExpansionReport expand(Player player, int timesToExpand) {
-        ExpansionReport report = new ExpansionReport(player);
-        MapCell result;
-        if (player.canExpand(timesToExpand)) {
-            for (int i = 0; i < timesToExpand; i++) {
-                result = executeExpansion(player);
-
-                if (result != null && result.getOwnerId().equals(player.getId())) {
-                    if (result.getHp() == MapCell.HP.STRONG) {
-                        report.territoryImproved.add(result);
-                    } else {
-                        report.territoryGained.add(result);
-                    }
-                    report.expansionsAttempted++;
-                    report.successfulExpansions++;
-                } else if (result != null && !result.getOwnerId().equals(player.getId())) {
-                    report.territoryWeakened.add(result);
-                    report.expansionsAttempted++;
-                    report.successfulExpansions++;
-                } else if (result == null) {
-                    report.expansionsAttempted++;
-                }
-            }
+        MetricsSink metrics = Metrics.getSink();
+        long started = metrics.startTimer(Metric.EXPAND);
+        ExpansionReport report;
+        if (regionLocks != null) {
+            report = expandConcurrently(player, timesToExpand);
         } else {
-            //The player tried to expand more times than their budget allows, so expand as many times as their
+            //If the player tried to expand more times than their budget allows, expand as many times as their
             //funds allow.
-            int playerFunds = player.getExpansionFund();
-            for (int i = 0; i < playerFunds; i++) {
-
-                result = executeExpansion(player);
-                if (result != null && result.getOwnerId().equals(player.getId())) {
-                    if (result.getHp() == MapCell.HP.STRONG) {
-                        report.territoryImproved.add(result);
-                    } else {
-                        report.territoryGained.add(result);
+            int expansions = player.canExpand(timesToExpand) ? timesToExpand : player.getExpansionFund();
+
+            if (expansions >= BULK_EXPANSION_THRESHOLD) {
+                report = expandInBulk(player, expansions);
+            } else {
+                report = new ExpansionReport(player, map);
+                for (int i = 0; i < expansions; i++) {
+                    recordExpansion(report, player, executeExpansion(player));
+                }
+            }
+        }
+        //there is no map to publish to before the game has started
+        if (map != null) {
+            report.setMapVersion(map.publishChanges());
+        }
+        metrics.stopTimer(Metric.EXPAND, started);
+        return report;
+    }
+
+    /**
+     * Resolves a number of expansions as one batch.  Unclaimed land is claimed breadth-first outward from
+     * the player's frontier, and only once there is none left does the player attack enemies and then improve
+     * their own land, exactly as each single expansion would.  Land freed by an attack is claimed before the
+     * next attack.  The player is charged once for every successful expansion, and once no target remains the
+     * rest of the expansions are recorded as failed attempts without searching again.
+     * @param player The game.Player who is expanding
+     * @param expansions The number of expansions to resolve, which the player must be able to afford
+     * @return a report covering every expansion in the batch
+     */
+    private ExpansionReport expandInBulk(Player player, int expansions) {
+        MetricsSink metrics = Metrics.getSink();
+        long started = metrics.startTimer(Metric.EXPAND_IN_BULK);
+        ExpansionReport report = new ExpansionReport(player, map);
+        IndexedCellSet unclaimedFrontier = player.getFrontier().getUnclaimedLand();
+        CellQueue claimQueue = new CellQueue(unclaimedFrontier.size() * 2);
+        boolean canClaim = gameStage == 1 || gameStage == 2,
+            canAttack = gameStage == 2 && player.getEnemyMap().size() > 0;
+        MapCell expansionTarget;
+        int completed = 0, neighbor;
+
+        while (completed < expansions) {
+            expansionTarget = null;
+            if (canClaim) {
+                expansionTarget = nextClaim(player, unclaimedFrontier, claimQueue);
+            }
+            if (expansionTarget == null && canAttack) {
+                expansionTarget = map.findExpansionTarget(player, MapCellComparator.Type.ENEMY_LAND);
+            }
+            if (expansionTarget == null && canClaim) {
+                expansionTarget = map.findImprovementTarget(player);
+            }
+            if (expansionTarget == null) {
+                break;
+            }
+
+            resolveExpansion(player, expansionTarget);
+            recordExpansion(report, player, expansionTarget);
+            completed++;
+            //queue the land around a newly claimed cell, so the claim spreads outward from it
+            if (expansionTarget.getOwnerId() == player.getId() && expansionTarget.getHp() == MapCell.HP.WEAK) {
+                for (Map.NeighborLocation nloc : EDGE_NEIGHBORS) {
+                    neighbor = map.getNeighborIndex(expansionTarget.getIndex(), nloc);
+                    if (neighbor != -1 && map.getOwnerId(neighbor) == MapCell.LAND) {
+                        claimQueue.add(neighbor);
                     }
-                    report.expansionsAttempted++;
-                    report.successfulExpansions++;
-                } else if (result != null && !result.getOwnerId().equals(player.getId())){
-                    report.territoryWeakened.add(result);
-                } else if (result == null) {
-                    report.expansionsAttempted++;
                 }
             }
         }
+        player.addToExpansionFund(-completed);
+        report.expansionsAttempted += expansions - completed;
+        metrics.stopTimer(Metric.EXPAND_IN_BULK, started);
         return report;
     }
 
+    /**
+     * Takes the next unclaimed cell to claim in a bulk expansion.  When the queue runs dry it is refilled from
+     * the player's frontier, starting from a random cell.
+     * @return the next cell to claim, or null if the player's frontier has no unclaimed land
+     */
+    private MapCell nextClaim(Player player, IndexedCellSet unclaimedFrontier, CellQueue claimQueue) {
+        int index, startSlot;
+        if (claimQueue.isEmpty() && !unclaimedFrontier.isEmpty()) {
+            startSlot = player.getRandom().nextInt(unclaimedFrontier.size());
+            for (int i = 0; i < unclaimedFrontier.size(); i++) {
+                claimQueue.add(unclaimedFrontier.get((startSlot + i) % unclaimedFrontier.size()).getIndex());
+            }
+        }
+        while (!claimQueue.isEmpty()) {
+            index = claimQueue.poll();
+            //cells can be queued more than once, and may have been claimed since they were queued
+            if (unclaimedFrontier.contains(index)) {
+                return map.getCell(index);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds the outcome of a single expansion to a report.
+     * @param result the cell that was expanded onto, or null if the expansion failed
+     */
+    private void recordExpansion(ExpansionReport report, Player player, MapCell result) {
+        if (result != null && result.getOwnerId() == player.getId()) {
+            if (result.getHp() == MapCell.HP.STRONG) {
+                report.record(ExpansionReport.Outcome.IMPROVED, result);
+            } else {
+                report.record(ExpansionReport.Outcome.GAINED, result);
+            }
+            report.successfulExpansions++;
+        } else if (result != null) {
+            report.record(ExpansionReport.Outcome.WEAKENED, result);
+            report.successfulExpansions++;
+        }
+        report.expansionsAttempted++;
+    }
+
     /**
      * Attempts to find and expand onto a valid target for a game.Player's territory.  A target is searched
      * for based on the following steps: <br>
@@ -175,8 +402,27 @@ public class Game {
      * @return The target map.MapCell for expansion, or null if none exists
      */
     private MapCell executeExpansion (Player player) {
+        MetricsSink metrics = Metrics.getSink();
+        long started = metrics.startTimer(Metric.EXECUTE_EXPANSION);
+        MapCell expansionTarget = findExpansionTarget(player);
+
+        if (expansionTarget != null) {
+            resolveExpansion(player, expansionTarget);
+            player.chargeForExpansion();
+        }
+
+        //if none of above possible, the target is null
+        metrics.stopTimer(Metric.EXECUTE_EXPANSION, started);
+        return expansionTarget;
+    }
+
+    /**
+     * Searches for the target of a game.Player's next expansion, following the steps described by
+     * {@link #executeExpansion(Player)}.
+     * @return The target map.MapCell for expansion, or null if none exists
+     */
+    private MapCell findExpansionTarget (Player player) {
         MapCell expansionTarget = null;
-        Player playerToReevaluate;
 
         //find adjacent empty land
         if (gameStage == 1 || gameStage == 2) {
@@ -190,19 +436,154 @@ public class Game {
         if (expansionTarget == null && (gameStage == 1 || gameStage == 2)) {
             expansionTarget = map.findImprovementTarget(player);
         }
+        return expansionTarget;
+    }
 
-        if (expansionTarget != null) {
-            playerToReevaluate = expansionTarget.attack(player);
-            if (playerToReevaluate != null) {
-                evaluateBorders(playerToReevaluate, expansionTarget);
+    /**
+     * The concurrent counterpart of {@link #expand(Player, int)}, used once concurrent expansion is enabled.
+     * Funds are checked under the player's lock before every expansion, so a player expanding from several
+     * threads at once can't overspend.
+     */
+    private ExpansionReport expandConcurrently(Player player, int timesToExpand) {
+        ExpansionReport report = new ExpansionReport(player, map);
+        MetricsSink metrics = Metrics.getSink();
+        long started;
+        int expansions;
+
+        player.getLock().lock();
+        try {
+            expansions = player.canExpand(timesToExpand) ? timesToExpand : player.getExpansionFund();
+        } finally {
+            player.getLock().unlock();
+        }
+        for (int i = 0; i < expansions; i++) {
+            started = metrics.startTimer(Metric.EXECUTE_EXPANSION);
+            executeConcurrentExpansion(player, report);
+            metrics.stopTimer(Metric.EXECUTE_EXPANSION, started);
+        }
+        return report;
+    }
+
+    /**
+     * Expands a game.Player's territory once while other threads may be expanding in the same game.  A target
+     * is chosen under the player's lock, and then the tiles around it are locked, followed by every player who
+     * owns a cell next to it.  Another thread may have changed the target in between, so it is checked again
+     * once everything is locked, and a new target is chosen if it is no longer valid.  The expansion is recorded
+     * while the target is still locked, so the report sees the cell as the expansion left it.
+     */
+    private void executeConcurrentExpansion (Player player, ExpansionReport report) {
+        MapCell expansionTarget;
+        RegionLocks.Region region;
+        Player[] lockedPlayers;
+
+        for (int attempt = 0; attempt < MAX_EXPANSION_RETRIES; attempt++) {
+            player.getLock().lock();
+            try {
+                expansionTarget = player.getExpansionFund() > 0 ? findExpansionTarget(player) : null;
+            } finally {
+                player.getLock().unlock();
+            }
+            if (expansionTarget == null) {
+                break;
+            }
+
+            region = regionLocks.lock(expansionTarget.getIndex());
+            try {
+                lockedPlayers = lockPlayersAround(player, expansionTarget.getIndex());
+                try {
+                    if (player.getExpansionFund() > 0 && isValidTarget(player, expansionTarget)) {
+                        resolveExpansion(player, expansionTarget);
+                        player.chargeForExpansion();
+                        recordExpansion(report, player, expansionTarget);
+                        return;
+                    }
+                } finally {
+                    for (int i = lockedPlayers.length - 1; i >= 0; i--) {
+                        lockedPlayers[i].getLock().unlock();
+                    }
+                }
+            } finally {
+                region.close();
             }
-            map.updateCell(expansionTarget);
-            player.chargeForExpansion();
-            return expansionTarget;
         }
+        recordExpansion(report, player, null);
+    }
 
-        //if none of above possible, return null
-        return expansionTarget;
+    /**
+     * @return true if the cell is still something the player is allowed to expand onto
+     */
+    private boolean isValidTarget (Player player, MapCell target) {
+        int ownerId = target.getOwnerId();
+        if (ownerId == player.getId()) {
+            return target.getHp() == MapCell.HP.WEAK;
+        } else if (ownerId == MapCell.LAND) {
+            return player.getFrontier().contains(target.getIndex(), ownerId);
+        } else {
+            return gameStage == 2 && player.getEnemyMap().containsKey(ownerId)
+                && player.getFrontier().contains(target.getIndex(), ownerId);
+        }
+    }
+
+    /**
+     * Locks the expanding player and every player who owns the target cell or a cell next to it, in order of
+     * id.  Those are the only players whose territory, borders or frontiers an expansion onto the target can
+     * change.  The caller must hold the region around the target, so the owners can't change while locking.
+     * @return the locked players, in the order they were locked
+     */
+    private Player[] lockPlayersAround (Player player, int index) {
+        Player[] players = new Player[10];
+        Player owner;
+        int count = 0, neighbor;
+
+        players[count++] = player;
+        for (Map.NeighborLocation nloc : Map.NeighborLocation.values()) {
+            neighbor = map.getNeighborIndex(index, nloc);
+            if (neighbor != -1) {
+                owner = idPlayerMap.get(map.getOwnerId(neighbor));
+                count = addIfAbsent(players, count, owner);
+            }
+        }
+        count = addIfAbsent(players, count, idPlayerMap.get(map.getOwnerId(index)));
+        players = Arrays.copyOf(players, count);
+        Arrays.sort(players, Comparator.comparingInt(Player::getId));
+        for (Player lockedPlayer : players) {
+            lockedPlayer.getLock().lock();
+        }
+        return players;
+    }
+
+    private int addIfAbsent (Player[] players, int count, Player player) {
+        if (player == null) {
+            return count;
+        }
+        for (int i = 0; i < count; i++) {
+            if (players[i] == player) {
+                return count;
+            }
+        }
+        players[count] = player;
+        return count + 1;
+    }
+
+    /**
+     * Applies a game.Player's expansion onto a target cell, and updates the borders and frontiers of whoever
+     * gained or lost the cell.  The player isn't charged for the expansion.
+     * @param player The game.Player who is expanding
+     * @param expansionTarget The cell being expanded onto
+     */
+    private void resolveExpansion (Player player, MapCell expansionTarget) {
+        int previousOwnerId = expansionTarget.getOwnerId();
+        Player playerToReevaluate = expansionTarget.attack(player);
+        MetricsSink metrics;
+        long started;
+        if (playerToReevaluate != null) {
+            metrics = Metrics.getSink();
+            started = metrics.startTimer(Metric.EVALUATE_BORDERS);
+            evaluateBorders(playerToReevaluate, expansionTarget);
+            metrics.stopTimer(Metric.EVALUATE_BORDERS, started);
+            evaluateFrontiers(expansionTarget, previousOwnerId);
+        }
+        map.updateCell(expansionTarget);
     }
 
     /**
@@ -212,37 +593,36 @@ public class Game {
      * @param cell The new cell that the game.Player owns.
      */
     private void evaluateBorders(Player player, MapCell cell) {
-        MapCell[] neighbors  = map.getNeighbors(cell);
-        if (player.getTerritory().contains(cell)) {
+        int left = map.getNeighborIndex(cell.getIndex(), LEFT),
+            up = map.getNeighborIndex(cell.getIndex(), UP),
+            right = map.getNeighborIndex(cell.getIndex(), RIGHT),
+            down = map.getNeighborIndex(cell.getIndex(), DOWN);
+        if (cell.getOwnerId() == player.getId()) {
             //The player gained the given cell, and it should be added to any applicable borders lists
-            if (neighbors[LEFT.locCode] != null && !neighbors[LEFT.locCode].getOwnerId().equals(MapCell.SEA)
-                && !neighbors[LEFT.locCode].getOwnerId().equals(player.getId())) {
-                    player.addToWestBorder(cell);
+            if (isForeignLand(left, player)) {
+                player.addToWestBorder(cell);
             }
-            if (neighbors[UP.locCode] != null && !neighbors[UP.locCode].getOwnerId().equals(MapCell.SEA)
-                && !neighbors[UP.locCode].getOwnerId().equals(player.getId())) {
-                    player.addToNorthBorder(cell);
+            if (isForeignLand(up, player)) {
+                player.addToNorthBorder(cell);
             }
-            if (neighbors[RIGHT.locCode] != null && !neighbors[RIGHT.locCode].getOwnerId().equals(MapCell.SEA)
-                && !neighbors[RIGHT.locCode].getOwnerId().equals(player.getId())) {
-                    player.addToEastBorder(cell);
+            if (isForeignLand(right, player)) {
+                player.addToEastBorder(cell);
             }
-            if (neighbors[DOWN.locCode] != null && !neighbors[DOWN.locCode].getOwnerId().equals(MapCell.SEA)
-                && !neighbors[DOWN.locCode].getOwnerId().equals(player.getId())) {
-                    player.addToSouthBorder(cell);
+            if (isForeignLand(down, player)) {
+                player.addToSouthBorder(cell);
             }
             //remove neighbors of the cell from border lists if applicable
-            if (neighbors[LEFT.locCode] != null && neighbors[LEFT.locCode].getOwnerId().equals(player.getId())) {
-                player.removeFromEastBorder(neighbors[LEFT.locCode]);
+            if (isOwnedBy(left, player)) {
+                player.removeFromEastBorder(map.getCell(left));
             }
-            if (neighbors[UP.locCode] != null && neighbors[UP.locCode].getOwnerId().equals(player.getId())) {
-                player.removeFromSouthBorder(neighbors[UP.locCode]);
+            if (isOwnedBy(up, player)) {
+                player.removeFromSouthBorder(map.getCell(up));
             }
-            if (neighbors[RIGHT.locCode] != null && neighbors[RIGHT.locCode].getOwnerId().equals(player.getId())) {
-                player.removeFromWestBorder(neighbors[RIGHT.locCode]);
+            if (isOwnedBy(right, player)) {
+                player.removeFromWestBorder(map.getCell(right));
             }
-            if (neighbors[DOWN.locCode] != null && neighbors[DOWN.locCode].getOwnerId().equals(player.getId())) {
-                player.removeFromNorthBorder(neighbors[DOWN.locCode]);
+            if (isOwnedBy(down, player)) {
+                player.removeFromNorthBorder(map.getCell(down));
             }
         } else {
             //The player lost the given cell, so it should be removed from border lists
@@ -251,26 +631,116 @@ public class Game {
             player.removeFromEastBorder(cell);
             player.removeFromSouthBorder(cell);
             //The neighbors of the lost cell should be reevaluated, because they may be new borders
-            if (neighbors[LEFT.locCode] != null && neighbors[LEFT.locCode].getOwnerId().equals(player.getId())) {
-                player.addToEastBorder(neighbors[LEFT.locCode]);
+            if (isOwnedBy(left, player)) {
+                player.addToEastBorder(map.getCell(left));
             }
-            if (neighbors[UP.locCode] != null && neighbors[UP.locCode].getOwnerId().equals(player.getId())) {
-                player.addToSouthBorder(neighbors[UP.locCode]);
+            if (isOwnedBy(up, player)) {
+                player.addToSouthBorder(map.getCell(up));
             }
-            if (neighbors[RIGHT.locCode] != null && neighbors[RIGHT.locCode].getOwnerId().equals(player.getId())) {
-                player.addToWestBorder(neighbors[RIGHT.locCode]);
+            if (isOwnedBy(right, player)) {
+                player.addToWestBorder(map.getCell(right));
             }
-            if (neighbors[DOWN.locCode] != null && neighbors[DOWN.locCode].getOwnerId().equals(player.getId())) {
-                player.addToNorthBorder(neighbors[DOWN.locCode]);
+            if (isOwnedBy(down, player)) {
+                player.addToNorthBorder(map.getCell(down));
             }
         }
 
     }
 
+    /**
+     * Updates the expansion frontiers affected by a cell changing hands.  The cell itself may enter or leave the
+     * frontier of any player next to it, and its neighbors may enter or leave the frontiers of the cell's
+     * previous and new owners.
+     * @param cell The cell whose owner changed
+     * @param previousOwnerId The id of the cell's owner before the change
+     */
+    private void evaluateFrontiers(MapCell cell, int previousOwnerId) {
+        Player previousOwner = idPlayerMap.get(previousOwnerId),
+            newOwner = idPlayerMap.get(cell.getOwnerId()),
+            neighborOwner;
+        int neighbor;
+
+        if (newOwner != null) {
+            refreshFrontier(newOwner, cell.getIndex(), previousOwnerId);
+        }
+        for (Map.NeighborLocation nloc : EDGE_NEIGHBORS) {
+            neighbor = map.getNeighborIndex(cell.getIndex(), nloc);
+            if (neighbor == -1) {
+                continue;
+            }
+            neighborOwner = idPlayerMap.get(map.getOwnerId(neighbor));
+            if (neighborOwner != null && neighborOwner != newOwner) {
+                refreshFrontier(neighborOwner, cell.getIndex(), previousOwnerId);
+            }
+            if (previousOwner != null) {
+                refreshFrontier(previousOwner, neighbor, map.getOwnerId(neighbor));
+            }
+            if (newOwner != null) {
+                refreshFrontier(newOwner, neighbor, map.getOwnerId(neighbor));
+            }
+        }
+    }
+
+    /**
+     * Adds a cell to or removes it from a game.Player's expansion frontier, depending on whether it is land that
+     * doesn't belong to the player and shares an edge with the player's territory.
+     * @param player The game.Player whose frontier should be updated
+     * @param index The index of the cell to check
+     * @param previousOwnerId The owner the cell may currently be filed under in the frontier
+     */
+    private void refreshFrontier(Player player, int index, int previousOwnerId) {
+        ExpansionFrontier frontier = player.getFrontier();
+        int ownerId = map.getOwnerId(index);
+        boolean inFrontier = false;
+
+        if (previousOwnerId != ownerId) {
+            frontier.remove(index, previousOwnerId);
+        }
+        if (ownerId != MapCell.SEA && ownerId != player.getId()) {
+            for (Map.NeighborLocation nloc : EDGE_NEIGHBORS) {
+                if (isOwnedBy(map.getNeighborIndex(index, nloc), player)) {
+                    inFrontier = true;
+                    break;
+                }
+            }
+        }
+        if (inFrontier) {
+            if (!frontier.contains(index, ownerId)) {
+                frontier.add(map.getCell(index));
+            }
+        } else {
+            frontier.remove(index, ownerId);
+        }
+    }
+
+    /**
+     * @return true if the cell at the given index is land that doesn't belong to the player
+     */
+    private boolean isForeignLand(int index, Player player) {
+        return index != -1 && map.getOwnerId(index) != MapCell.SEA && map.getOwnerId(index) != player.getId();
+    }
+
+    /**
+     * @return true if the cell at the given index belongs to the player
+     */
+    private boolean isOwnedBy(int index, Player player) {
+        return index != -1 && map.getOwnerId(index) == player.getId();
+    }
+
     public void declareWar(Player initiator, Player target) {
         if (!initiator.getId().equals(target.getId())) {
-            initiator.addEnemy(target);
-            target.addEnemy(initiator);
+            Player first = initiator.getId() < target.getId() ? initiator : target,
+                second = first == initiator ? target : initiator;
+            //enemy maps are read by expansions, which may be running on other threads
+            first.getLock().lock();
+            second.getLock().lock();
+            try {
+                initiator.addEnemy(target);
+                target.addEnemy(initiator);
+            } finally {
+                second.getLock().unlock();
+                first.getLock().unlock();
+            }
         }
     }
 
@@ -284,22 +754,36 @@ public class Game {
      * @return true if mutual peace is established, false if the target player is still at war with the initiating player
      */
     public boolean petitionPeace(Player initiator, Player target) {
-        idPlayerMap.get(initiator.getId()).removeEnemy(target);
+        Player petitioner = idPlayerMap.get(initiator.getId());
+        petitioner.getLock().lock();
+        try {
+            petitioner.removeEnemy(target);
+        } finally {
+            petitioner.getLock().unlock();
+        }
         //The initiator is not an enemy to the target, so mutual peace has been established
-        return target.getEnemyMap().get(initiator.getId()) == null;
+        target.getLock().lock();
+        try {
+            return target.getEnemyMap().get(initiator.getId()) == null;
+        } finally {
+            target.getLock().unlock();
+        }
     }
 
     /**
-     * Returns a list of Players in descending order based on the amount of cells within their territory
+     * Returns a list of Players in descending order based on the amount of cells within their territory.  Players
+     * with territories of the same size are ordered by id.
      * @return an ArrayList of Players, where the first 3 elements represent the 1st, 2nd, and 3rd place Players
      */
     public ArrayList<Player> getScores () {
-        ArrayList<Player> winners;
-
-        winners = idPlayerMap.values().stream().sorted(Comparator.comparingInt(player -> player.getTerritory().size())).collect(Collectors.toCollection(ArrayList::new));
-        winners.sort(Collections.reverseOrder());
+        return leaderboard.getRanking();
+    }
 
-        return winners;
+    /**
+     * @return the game's players ranked by territory, kept up to date as cells change hands
+     */
+    public Leaderboard getLeaderboard () {
+        return leaderboard;
     }
 
     private int getNextId(int initialId) {
@@ -340,17 +824,39 @@ public class Game {
     }
 
     /**
-     * Returns a Player that exists in the game by their external id value
+     * Returns a Player that exists in the game by their external id value.  Players are indexed by external id
+     * as they are added, so this takes constant time however many players the game has.
      * @param externalId the unique identifier for the player
      * @return the corresponding Player, null if none exists in the game
      */
     public Player getPlayerByExternalId(long externalId) {
+        return externalIdIndex.get(externalId);
+    }
+
+    /**
+     * Starts reporting the game's players to a directory: those already in the game, and every player added from
+     * now on.
+     * @param gameId the id the game is hosted under
+     */
+    void attachDirectory (PlayerDirectory directory, long gameId) {
+        detachDirectory();
+        this.directory = directory;
+        this.directoryGameId = gameId;
         for (Player player : idPlayerMap.values()) {
-            if (player.getExternalId() == externalId) {
-                return player;
+            directory.add(player.getExternalId(), gameId);
+        }
+    }
+
+    /**
+     * Removes the game's players from the directory it reports to, if any, and stops reporting to it.
+     */
+    void detachDirectory () {
+        if (directory != null) {
+            for (Player player : idPlayerMap.values()) {
+                directory.remove(player.getExternalId(), directoryGameId);
             }
+            directory = null;
         }
-        return null;
     }
 
     public Integer getJackpot () {
@@ -361,6 +867,31 @@ public class Game {
         return map.toString();
     }
 
+    /**
+     * @return the update that brings a client holding the given map version up to date.  Updates hold the owner
+     *          id and hp of every changed cell, not just its character.
+     * @see Map#encodeUpdate(long)
+     */
+    public byte[] getMapUpdate(long clientVersion) {
+        return map.encodeUpdate(clientVersion);
+    }
+
+    /**
+     * @return the part of the map within the given viewport
+     * @see Map#render(int, int, int, int)
+     */
+    public String getMapString(int x, int y, int viewWidth, int viewHeight) {
+        return map.render(x, y, viewWidth, viewHeight);
+    }
+
+    /**
+     * @return a viewport of the map centered on the player's territory
+     * @see Map#renderAround(Player, int, int)
+     */
+    public String getMapString(Player player, int viewWidth, int viewHeight) {
+        return map.renderAround(player, viewWidth, viewHeight);
+    }
+
     public LocalDateTime getStartDate () {
         return startDate;
     }
@@ -373,6 +904,45 @@ public class Game {
         return gameStage;
     }
 
+    public LandDensity getLandDensity () {
+        return landRatio;
+    }
+
+    /**
+     * A first-in, first-out queue of cell indices that grows as needed.
+     */
+    private static class CellQueue {
+        private int[] indices;
+        private int head, tail;
+
+        private CellQueue (int initialCapacity) {
+            indices = new int[Math.max(16, initialCapacity)];
+        }
+
+        private void add (int index) {
+            if (tail == indices.length) {
+                //reclaim the space in front of the head before growing
+                if (head > indices.length / 2) {
+                    System.arraycopy(indices, head, indices, 0, tail - head);
+                } else {
+                    indices = Arrays.copyOf(indices, indices.length * 2);
+                    System.arraycopy(indices, head, indices, 0, tail - head);
+                }
+                tail -= head;
+                head = 0;
+            }
+            indices[tail++] = index;
+        }
+
+        private int poll () {
+            return indices[head++];
+        }
+
+        private boolean isEmpty () {
+            return head == tail;
+        }
+    }
+
     private class GameReport {
         ArrayList<Player> winners;
         int[] payouts;
@@ -409,12 +979,110 @@ public class Game {
         }
     }
 
+    /**
+     * Replaces the game's random stream with a new one seeded from it, so a copy of the game can pick up the same
+     * stream from the returned seed.
+     * @return the seed of the new stream
+     */
+    long reseed () {
+        long streamSeed = random.nextLong();
+        random = new SplittableRandom(streamSeed);
+        return streamSeed;
+    }
+
+    void setRandom (SplittableRandom random) {
+        this.random = random;
+    }
+
+    /**
+     * Rebuilds every player's territory, weak territory, borders and frontier from the owners on the map, in a
+     * single pass over its cells.  Used when a game is restored, since only the map itself is saved.  Sets are
+     * filled in order of cell index, so games rebuilt from the same map hold their cells in the same order.
+     */
+    void rebuildPlayerState () {
+        Player owner, neighborOwner;
+        MapCell cell;
+        int ownerId, neighbor;
+
+        for (Player player : idPlayerMap.values()) {
+            player.resetTerritoryState();
+        }
+        if (map == null) {
+            return;
+        }
+
+        for (int index = 0; index < map.getWidth() * map.getHeight(); index++) {
+            ownerId = map.getOwnerId(index);
+            if (ownerId == MapCell.SEA) {
+                continue;
+            }
+            cell = map.getCell(index);
+            owner = idPlayerMap.get(ownerId);
+            if (owner != null) {
+                owner.addToTerritory(cell);
+            }
+            for (Map.NeighborLocation nloc : EDGE_NEIGHBORS) {
+                neighbor = map.getNeighborIndex(index, nloc);
+                if (neighbor == -1) {
+                    continue;
+                }
+                if (owner != null && isForeignLand(neighbor, owner)) {
+                    addToBorder(owner, cell, nloc);
+                }
+                neighborOwner = idPlayerMap.get(map.getOwnerId(neighbor));
+                if (neighborOwner != null && neighborOwner != owner) {
+                    neighborOwner.getFrontier().add(cell);
+                }
+            }
+        }
+    }
+
+    private void addToBorder (Player player, MapCell cell, Map.NeighborLocation nloc) {
+        switch (nloc) {
+            case LEFT:
+                player.addToWestBorder(cell);
+                break;
+            case UP:
+                player.addToNorthBorder(cell);
+                break;
+            case RIGHT:
+                player.addToEastBorder(cell);
+                break;
+            default:
+                player.addToSouthBorder(cell);
+                break;
+        }
+    }
+
     public void setIdPlayerMap (HashMap<Integer, Player> idPlayerMap) {
+        PlayerDirectory attached = directory;
+        detachDirectory();
         this.idPlayerMap = idPlayerMap;
+        this.externalIdIndex = new ExternalIdIndex();
+        this.leaderboard = new Leaderboard();
+        for (Player player : idPlayerMap.values()) {
+            externalIdIndex.add(player);
+            leaderboard.add(player);
+        }
+        if (attached != null) {
+            attachDirectory(attached, directoryGameId);
+        }
+    }
+
+    /**
+     * @return the seed the game's random stream was created from
+     */
+    public long getSeed () {
+        return seed;
+    }
+
+    public Map getMap () {
+        return map;
     }
 
     public void setMap (Map map) {
         this.map = map;
+        createRegionLocks();
     }
 
     public void setStartDate (LocalDateTime startDate) {
@@ -440,4 +1108,20 @@ public class Game {
     public void setRecruitmentId (long recruitmentId) {
         this.recruitmentId = recruitmentId;
     }
+
+    long getJournalSequence () {
+        return journalSequence;
+    }
+
+    void setJournalSequence (long journalSequence) {
+        this.journalSequence = journalSequence;
+    }
+
+    /**
+     * Restores the large lobby setting of a saved game, whose players already hold their ids.
+     * @param maxPlayers the most players the game can hold, or 0 if it isn't a large lobby
+     */
+    void setLargeLobbyMaxPlayers (int maxPlayers) {
+        this.largeLobbyMaxPlayers = maxPlayers;
+    }
 }
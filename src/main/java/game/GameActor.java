@@ -0,0 +1,82 @@
+package game;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Drives a single Game from a mailbox of commands.  Commands run one at a time, in the order they were
+ * submitted, on whichever thread of the shared executor picks the actor up, so the game itself never needs to
+ * be locked.  An actor is only queued on the executor while it has commands waiting, and it gives its thread
+ * back after a batch of commands so that busy games can't starve quiet ones.
+ */
+class GameActor implements Runnable {
+    //the most commands run before the actor yields its thread
+    private static final int BATCH_SIZE = 64;
+
+    private final Game game;
+    private final Executor executor;
+    private final ConcurrentLinkedQueue<Runnable> mailbox;
+    private final AtomicBoolean scheduled;
+
+    GameActor(Game game, Executor executor) {
+        this.game = game;
+        this.executor = executor;
+        this.mailbox = new ConcurrentLinkedQueue<>();
+        this.scheduled = new AtomicBoolean(false);
+    }
+
+    /**
+     * Queues a command against the game.
+     * @param command the command to run, given the game
+     * @return a future completed with the command's result, or exceptionally if the command throws
+     */
+    <T> CompletableFuture<T> submit(Function<Game, T> command) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        mailbox.offer(() -> {
+            try {
+                result.complete(command.apply(game));
+            } catch (Throwable e) {
+                //the failure belongs to the caller; the actor must keep serving the game's other commands
+                result.completeExceptionally(e);
+            }
+        });
+        try {
+            schedule();
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    @Override
+    public void run() {
+        Runnable command;
+        for (int i = 0; i < BATCH_SIZE && (command = mailbox.poll()) != null; i++) {
+            command.run();
+        }
+        scheduled.set(false);
+        //commands may have arrived after the last poll, while the actor still looked scheduled
+        if (!mailbox.isEmpty()) {
+            schedule();
+        }
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+                throw e;
+            }
+        }
+    }
+
+    Game getGame() {
+        return game;
+    }
+}
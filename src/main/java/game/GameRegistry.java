@@ -0,0 +1,302 @@
+package game;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Hosts any number of concurrently running games, keyed by an external id such as a server or channel id.
+ * Every game is driven by its own single-writer mailbox, and all mailboxes share one bounded pool of worker
+ * threads.  Commands for one game run in submission order and never overlap, while commands for different
+ * games run in parallel, so no locking is needed inside the game logic.  Games must only be touched through
+ * the registry once they are registered.
+ * <br>
+ * A registry may keep a {@link CommandJournal}.  Adding players, expanding, war and peace, fund adjustments, stage
+ * advances and saves are then journaled before they run, and their futures only complete once the journal has
+ * them on disk.  Other commands, including those passed to {@link #submit(long, Function)}, aren't journaled.
+ * A game is recovered by {@link #restore(long, Path)}, which replays the game's journal on top of its latest
+ * snapshot, so games should be saved once when they are registered.  Maps taken from a {@link MapPool} can't be
+ * regenerated on replay, so games using a pool should also be saved as soon as they start.
+ * <br>
+ * Every hosted game reports its players to the registry's {@link PlayerDirectory}, so the games a user is playing
+ * in can be found by their external id.
+ */
+public class GameRegistry {
+    private final ConcurrentHashMap<Long, GameActor> actors;
+    private final ExecutorService workers;
+    private final CommandJournal journal;
+    private final PlayerDirectory directory;
+    private volatile boolean closed;
+
+    /**
+     * Creates a registry with one worker thread per available processor.
+     */
+    public GameRegistry() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public GameRegistry(int workerThreads) {
+        this(workerThreads, null);
+    }
+
+    /**
+     * @param workerThreads the number of threads games are run on
+     * @param journal the journal commands are recorded in, or null to keep none
+     */
+    public GameRegistry(int workerThreads, CommandJournal journal) {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "game-worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.actors = new ConcurrentHashMap<>();
+        this.workers = Executors.newFixedThreadPool(workerThreads, threadFactory);
+        this.journal = journal;
+        this.directory = new PlayerDirectory();
+    }
+
+    /**
+     * Starts hosting a game.  The game's players are listed in the directory from its first command on.
+     * @param gameId the external id of the game
+     * @param game the game to host
+     * @return false if a game is already registered under the id, in which case nothing changes
+     */
+    public boolean register(long gameId, Game game) {
+        GameActor actor = new GameActor(game, workers);
+        if (actors.putIfAbsent(gameId, actor) != null) {
+            return false;
+        }
+        //attached on the game's own thread, so it is ordered with the players added by later commands
+        actor.submit(hosted -> {
+            hosted.attachDirectory(directory, gameId);
+            return null;
+        });
+        return true;
+    }
+
+    /**
+     * Stops hosting a game.  Commands already submitted for the game will still run, after which its players
+     * are removed from the directory.
+     * @return the game that was removed, or null if no game was registered under the id
+     */
+    public Game remove(long gameId) {
+        GameActor actor = actors.remove(gameId);
+        if (actor == null) {
+            return null;
+        }
+        actor.submit(hosted -> {
+            hosted.detachDirectory();
+            return null;
+        });
+        return actor.getGame();
+    }
+
+    public boolean contains(long gameId) {
+        return actors.containsKey(gameId);
+    }
+
+    public int size() {
+        return actors.size();
+    }
+
+    /**
+     * @return the ids of the hosted games the user is playing in
+     * @see PlayerDirectory#getGames(long)
+     */
+    public Set<Long> getGamesOf(long externalId) {
+        return directory.getGames(externalId);
+    }
+
+    public PlayerDirectory getDirectory() {
+        return directory;
+    }
+
+    public Collection<Long> getGameIds() {
+        return actors.keySet();
+    }
+
+    /**
+     * Queues a command against a game.  The command runs on a worker thread, after every command previously
+     * submitted for the same game.
+     * @param gameId the external id of the game
+     * @param command the command to run, given the game
+     * @return a future of the command's result.  It completes exceptionally if the command throws, if no game
+     *          is registered under the id, or if the registry has been shut down.
+     */
+    public <T> CompletableFuture<T> submit(long gameId, Function<Game, T> command) {
+        GameActor actor = actors.get(gameId);
+        if (closed) {
+            return failedFuture(new IllegalStateException("The registry has been shut down"));
+        } else if (actor == null) {
+            return failedFuture(new IllegalArgumentException("No game registered with id " + gameId));
+        }
+        return actor.submit(command);
+    }
+
+    private static <T> CompletableFuture<T> failedFuture(Throwable cause) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        result.completeExceptionally(cause);
+        return result;
+    }
+
+    /**
+     * Queues a command that is recorded in the journal, if the registry keeps one, before it runs.
+     * @param toRecord makes the command's record on the game's thread, resetting any random streams it draws from
+     * @param command the command to run, given the game
+     * @return a future of the command's result, completed once its record is on disk
+     */
+    private <T> CompletableFuture<T> submitJournaled(long gameId, Function<Game, CommandJournal.Record> toRecord,
+                                                     Function<Game, T> command) {
+        if (journal == null) {
+            return submit(gameId, command);
+        }
+        return submit(gameId, game -> {
+            CommandJournal.Record record = toRecord.apply(game);
+            CompletableFuture<Void> durable = journal.append(gameId, record);
+            game.setJournalSequence(record.getSequence());
+            T result = command.apply(game);
+            return durable.thenApply(ignored -> result);
+        }).thenCompose(Function.identity());
+    }
+
+    /**
+     * Adds a player to a game.
+     * @return a future of the player, or of null if the game is already full
+     */
+    public CompletableFuture<Player> addPlayer(long gameId, Player player) {
+        return submitJournaled(gameId,
+            game -> CommandJournal.Record.addPlayer(player.getUsername(), player.getExternalId(), game.reseed()),
+            game -> game.addPlayer(player));
+    }
+
+    public CompletableFuture<ExpansionReport> expand(long gameId, Player player, int timesToExpand) {
+        return submitJournaled(gameId,
+            game -> CommandJournal.Record.expand(player.getId(), timesToExpand, player.reseed()),
+            game -> game.expand(player, timesToExpand));
+    }
+
+    public CompletableFuture<Void> declareWar(long gameId, Player initiator, Player target) {
+        return submitJournaled(gameId,
+            game -> CommandJournal.Record.declareWar(initiator.getId(), target.getId()),
+            game -> {
+                game.declareWar(initiator, target);
+                return null;
+            });
+    }
+
+    public CompletableFuture<Boolean> petitionPeace(long gameId, Player initiator, Player target) {
+        return submitJournaled(gameId,
+            game -> CommandJournal.Record.petitionPeace(initiator.getId(), target.getId()),
+            game -> game.petitionPeace(initiator, target));
+    }
+
+    public CompletableFuture<Void> adjustPlayerFunds(long gameId, Player player, int fundsToAdd) {
+        return submitJournaled(gameId,
+            game -> CommandJournal.Record.adjustPlayerFunds(player.getId(), fundsToAdd),
+            game -> {
+                game.adjustPlayerFunds(player, fundsToAdd);
+                return null;
+            });
+    }
+
+    /**
+     * Advances a game's stage.
+     * @return a future of the game's new stage
+     */
+    public CompletableFuture<Integer> advanceGameStage(long gameId) {
+        return submitJournaled(gameId,
+            game -> CommandJournal.Record.advanceGameStage(game.reseed()),
+            game -> {
+                game.advanceGameStage();
+                return game.getGameStage();
+            });
+    }
+
+    /**
+     * Saves a game to a snapshot file once the commands already queued for it have run.  Once the snapshot is
+     * on disk, the game's records up to the save are checkpointed in the journal, which compacts them on a thread
+     * of its own.
+     * @see GameSnapshot#save(Game, Path)
+     */
+    public CompletableFuture<Void> save(long gameId, Path path) {
+        return submitJournaled(gameId, game -> CommandJournal.Record.save(), game -> {
+            try {
+                GameSnapshot.save(game, path);
+                if (journal != null) {
+                    journal.checkpoint(gameId, game.getJournalSequence());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Loads a game from a snapshot file, replays the commands journaled for it since the snapshot was saved and
+     * starts hosting it.
+     * @return false if a game is already registered under the id, in which case the snapshot isn't loaded
+     * @see GameSnapshot#load(Path)
+     */
+    public boolean restore(long gameId, Path path) throws IOException {
+        if (actors.containsKey(gameId)) {
+            return false;
+        }
+        Game game = GameSnapshot.load(path);
+        if (journal != null) {
+            journal.replay(gameId, game);
+        }
+        return register(gameId, game);
+    }
+
+    public CompletableFuture<String> getMapString(long gameId) {
+        return submit(gameId, Game::getMapString);
+    }
+
+    public CompletableFuture<String> getMapString(long gameId, Player player, int viewWidth, int viewHeight) {
+        return submit(gameId, game -> game.getMapString(player, viewWidth, viewHeight));
+    }
+
+    /**
+     * @return a future of the update that brings a client holding the given map version up to date
+     * @see Game#getMapUpdate(long)
+     */
+    public CompletableFuture<byte[]> getMapUpdate(long gameId, long clientVersion) {
+        return submit(gameId, game -> game.getMapUpdate(clientVersion));
+    }
+
+    /**
+     * Stops accepting commands, waits for the commands already queued to finish and then stops the worker
+     * threads.  Each mailbox is drained by queueing one last empty command behind everything else in it.
+     * @param timeout the longest time to wait
+     * @return true if every queued command finished in time
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        closed = true;
+        CompletableFuture<?>[] drained = actors.values().stream()
+            .map(actor -> actor.submit(game -> null))
+            .toArray(CompletableFuture[]::new);
+        try {
+            CompletableFuture.allOf(drained).get(timeout, unit);
+        } catch (ExecutionException | TimeoutException e) {
+            workers.shutdownNow();
+            return false;
+        }
+        workers.shutdown();
+        return workers.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+}
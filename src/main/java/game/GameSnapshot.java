@@ -0,0 +1,243 @@
+package game;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import map.Map;
+
+/**
+ * Saves and restores the full state of a game in a compact, versioned binary format.  A snapshot holds the
+ * game's settings, stage, jackpot and dates, a record for every player with their funds and enemies, and the map
+ * as owner ids and land and hp bits per cell.  Territories, borders and frontiers aren't saved; they are rebuilt
+ * from the map in a single pass when the snapshot is loaded.
+ * <br>
+ * Snapshots are loaded through a memory-mapped file, so the cell arrays are copied straight out of the page cache.
+ * <br>
+ * Saving reseeds the random streams of the game and its players and records the new seeds, and it rebuilds the
+ * saved game's territories from its map just as loading does.  Random targets are drawn by position within those
+ * sets, so from then on the saved game and any game loaded from the snapshot play out identically given the same
+ * commands.
+ * <br>
+ * Version 2 adds the sequence of the last {@link CommandJournal} record applied to the game, so recovery knows
+ * which journaled commands the snapshot already holds.  Version 1 snapshots load with a sequence of 0.
+ * <br>
+ * Version 3 adds the large lobby setting, stores owner ids as shorts rather than bytes, and counts each player's
+ * enemies with an int, since a player in a large lobby can be at war with more than 127 others.  Earlier
+ * snapshots load as classic games.
+ */
+public final class GameSnapshot {
+    //"AWAR" in ascii
+    private static final int MAGIC = 0x41574152;
+    private static final short VERSION = 3;
+
+    private GameSnapshot () {
+    }
+
+    /**
+     * Saves a game to a file.  The snapshot is written to a temporary file and moved over the target once it is on
+     * disk, so a crash while saving never leaves a partial snapshot behind.
+     * @param game the game to save.  It must not change while it is being saved.
+     * @param path the file to save to
+     */
+    public static void save(Game game, Path path) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(game, channel);
+            channel.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Writes a snapshot of a game to a channel.
+     * @param game the game to save.  It must not change while it is being saved.
+     */
+    public static void write(Game game, WritableByteChannel channel) throws IOException {
+        ByteBuffer out = toBuffer(game);
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+    }
+
+    /**
+     * Encodes a snapshot of a game.
+     * @param game the game to save.  It must not change while it is being saved.
+     * @return a buffer holding the snapshot, positioned at its start
+     */
+    public static ByteBuffer toBuffer(Game game) {
+        List<byte[]> usernames = new ArrayList<>();
+        Map map = game.getMap();
+        int length = 4 + 2 + 8 + 8 + 8 + 1 + 4 + 4 + 4 + 8 + 12 + 12 + 4 + 1;
+        long[] streamSeeds = reseed(game);
+        ByteBuffer out;
+
+        for (Player player : game.getPlayers()) {
+            usernames.add(player.getUsername().getBytes(StandardCharsets.UTF_8));
+            length += 4 + 8 + 4 + 8 + 2 + usernames.get(usernames.size() - 1).length + 4
+                + player.getEnemyMap().size() * 4;
+        }
+        if (map != null) {
+            length += map.getSnapshotLength();
+        }
+
+        out = ByteBuffer.allocate(length);
+        out.putInt(MAGIC);
+        out.putShort(VERSION);
+        out.putLong(game.getSeed());
+        out.putLong(game.getJournalSequence());
+        out.putLong(streamSeeds[0]);
+        out.put((byte) game.getLandDensity().ordinal());
+        out.putInt(game.getJackpot());
+        out.putInt(game.getGameStage());
+        out.putInt(game.isLargeLobby() ? game.getMaxPlayers() : 0);
+        out.putLong(game.getRecruitmentId());
+        putDate(out, game.getStartDate());
+        putDate(out, game.getEndDate());
+
+        out.putInt(game.getPlayers().size());
+        int next = 0;
+        for (Player player : game.getPlayers()) {
+            byte[] username = usernames.get(next++);
+            out.putInt(player.getId());
+            out.putLong(player.getExternalId());
+            out.putInt(player.getExpansionFund());
+            out.putLong(streamSeeds[next]);
+            out.putShort((short) username.length);
+            out.put(username);
+            out.putInt(player.getEnemyMap().size());
+            for (Integer enemyId : player.getEnemyMap().keySet()) {
+                out.putInt(enemyId);
+            }
+        }
+
+        out.put((byte) (map != null ? 1 : 0));
+        if (map != null) {
+            map.writeSnapshot(out);
+        }
+        game.rebuildPlayerState();
+        return out.flip();
+    }
+
+    /**
+     * Puts a game in the state saving it leaves it in, without encoding it: its random streams are reseeded and
+     * its territories rebuilt from its map.  Replaying a journal calls this wherever the live game was saved, so
+     * the replayed game stays in step with it even when that save never reached the disk.
+     */
+    static void normalize(Game game) {
+        reseed(game);
+        game.rebuildPlayerState();
+    }
+
+    /**
+     * @return the new seed of the game's stream, followed by the new seeds of its players' streams in the order
+     *          the players are iterated
+     */
+    private static long[] reseed(Game game) {
+        long[] streamSeeds = new long[game.getPlayers().size() + 1];
+        int next = 0;
+        streamSeeds[next++] = game.reseed();
+        for (Player player : game.getPlayers()) {
+            streamSeeds[next++] = player.reseed();
+        }
+        return streamSeeds;
+    }
+
+    /**
+     * Loads a game from a snapshot file, reading it through a memory-mapped buffer.
+     * @throws IOException if the file can't be read, or doesn't hold a snapshot this version can load
+     */
+    public static Game load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(in);
+        }
+    }
+
+    /**
+     * Restores a game from a snapshot held in a buffer, starting at the buffer's position.
+     * @throws IOException if the buffer doesn't hold a snapshot this version can load
+     */
+    public static Game read(ByteBuffer in) throws IOException {
+        HashMap<Integer, Player> idPlayerMap = new HashMap<>();
+        HashMap<Integer, int[]> enemyIds = new HashMap<>();
+        Game game;
+
+        try {
+            if (in.getInt() != MAGIC) {
+                throw new IOException("Not a game snapshot");
+            }
+            short version = in.getShort();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Unsupported snapshot version " + version);
+            }
+            long seed = in.getLong(), journalSequence = version >= 2 ? in.getLong() : 0, streamSeed = in.getLong();
+            game = new Game(Game.LandDensity.values()[in.get()], in.getInt(), seed);
+            game.setJournalSequence(journalSequence);
+            game.setRandom(new SplittableRandom(streamSeed));
+            game.setGameStage(in.getInt());
+            game.setLargeLobbyMaxPlayers(version >= 3 ? in.getInt() : 0);
+            game.setRecruitmentId(in.getLong());
+            game.setStartDate(getDate(in));
+            game.setEndDate(getDate(in));
+
+            int playerCount = in.getInt();
+            for (int i = 0; i < playerCount; i++) {
+                int id = in.getInt();
+                long externalId = in.getLong();
+                int expansionFund = in.getInt();
+                long playerSeed = in.getLong();
+                byte[] username = new byte[in.getShort()];
+                in.get(username);
+                Player player = new Player(new String(username, StandardCharsets.UTF_8), externalId);
+                player.setId(id);
+                player.addToExpansionFund(expansionFund);
+                player.setRandom(new SplittableRandom(playerSeed));
+                int[] enemies = new int[version >= 3 ? in.getInt() : in.get()];
+                for (int e = 0; e < enemies.length; e++) {
+                    enemies[e] = in.getInt();
+                }
+                idPlayerMap.put(id, player);
+                enemyIds.put(id, enemies);
+            }
+            for (Player player : idPlayerMap.values()) {
+                for (int enemyId : enemyIds.get(player.getId())) {
+                    player.addEnemy(idPlayerMap.get(enemyId));
+                }
+            }
+            game.setIdPlayerMap(idPlayerMap);
+
+            if (in.get() == 1) {
+                game.setMap(Map.readSnapshot(in, version >= 3));
+            }
+            game.rebuildPlayerState();
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Truncated or corrupt game snapshot", e);
+        }
+        return game;
+    }
+
+    private static void putDate(ByteBuffer out, LocalDateTime date) {
+        out.putLong(date.toEpochSecond(ZoneOffset.UTC));
+        out.putInt(date.getNano());
+    }
+
+    private static LocalDateTime getDate(ByteBuffer in) {
+        return LocalDateTime.ofEpochSecond(in.getLong(), in.getInt(), ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,202 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The players of a game ranked by the size of their territory.  The ranking is kept in order as cells are gained
+ * and lost, instead of being sorted whenever it is asked for.
+ * <br>
+ * Players are held in an array in descending order of score, and players sharing a score are held in order of
+ * id, so the array is always the ranking itself.  When a score changes, the player's new slot is found by binary
+ * search and the players between its old and new slots shift along by one.  Territory changes one cell at a
+ * time, so only the players tied with the old or new score are ever shifted.  Reading the top k players is a copy
+ * of the first k slots, with no sorting.
+ * <br>
+ * Updates and reads take a read-write lock, so the leaderboard can be read while expansions run on other threads.
+ */
+public class Leaderboard {
+    private final ReentrantReadWriteLock lock;
+    private Player[] ranked;
+    //the score of the player in each slot
+    private int[] scores;
+    private int size;
+
+    public Leaderboard() {
+        this.lock = new ReentrantReadWriteLock();
+        this.ranked = new Player[8];
+        this.scores = new int[8];
+    }
+
+    /**
+     * Adds a player, ranked by the size of the territory they hold now.  The player's territory changes are
+     * counted from then on.
+     */
+    void add(Player player) {
+        lock.writeLock().lock();
+        try {
+            if (size == ranked.length) {
+                ranked = Arrays.copyOf(ranked, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            ranked[size] = player;
+            scores[size] = player.getTerritory().size();
+            player.setLeaderboard(this, size++);
+            moveTo(size - 1, scores[size - 1]);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Counts a cell a player gained.
+     */
+    void increment(Player player) {
+        lock.writeLock().lock();
+        try {
+            int slot = player.getLeaderboardSlot();
+            moveTo(slot, scores[slot] + 1);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Counts a cell a player lost.
+     */
+    void decrement(Player player) {
+        lock.writeLock().lock();
+        try {
+            int slot = player.getLeaderboardSlot();
+            moveTo(slot, scores[slot] - 1);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Sets a player's score outright, for when their territory is replaced rather than changed a cell at a time.
+     */
+    void reset(Player player, int score) {
+        lock.writeLock().lock();
+        try {
+            moveTo(player.getLeaderboardSlot(), score);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param k the number of players to return
+     * @return the k players with the largest territories, largest first.  Players with territories of the same
+     *          size are ordered by id.
+     */
+    public ArrayList<Player> top(int k) {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(Arrays.asList(ranked).subList(0, Math.min(k, size)));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return every player, largest territory first
+     */
+    public ArrayList<Player> getRanking() {
+        return top(Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return the player's place on the leaderboard, starting from 1.  Players with territories of the same size
+     *          share a place, and the places after them are skipped.
+     */
+    public int rankOf(Player player) {
+        lock.readLock().lock();
+        try {
+            int slot = player.getLeaderboardSlot();
+            return firstSlotAbove(scores[slot], 0, slot) + 1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the size of the player's territory as the leaderboard last counted it
+     */
+    public int getScore(Player player) {
+        lock.readLock().lock();
+        try {
+            return scores[player.getLeaderboardSlot()];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the end of the players scoring more than a score, within a range of slots that contains it.
+     * @return the first slot in [from, to) whose score is at most the given score, or to if there is none
+     */
+    private int firstSlotAbove(int score, int from, int to) {
+        int middle;
+        while (from < to) {
+            middle = (from + to) >>> 1;
+            if (scores[middle] > score) {
+                from = middle + 1;
+            } else {
+                to = middle;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * Finds where a player belongs among the players in a range of slots, which must be in ranked order.
+     * @return the first slot in [from, to) holding a player ranked below the given score and id, or to if there
+     *          is none
+     */
+    private int slotFor(int score, int id, int from, int to) {
+        int middle;
+        while (from < to) {
+            middle = (from + to) >>> 1;
+            if (scores[middle] > score || scores[middle] == score && ranked[middle].getId() < id) {
+                from = middle + 1;
+            } else {
+                to = middle;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * Gives the player in a slot a new score, moves them to the slot that score and their id rank them in, and
+     * shifts the players between their old and new slots along by one.
+     */
+    private void moveTo(int slot, int score) {
+        Player player = ranked[slot];
+        int target = slotFor(score, player.getId(), 0, slot);
+        if (target < slot) {
+            System.arraycopy(ranked, target, ranked, target + 1, slot - target);
+            System.arraycopy(scores, target, scores, target + 1, slot - target);
+        } else {
+            target = slotFor(score, player.getId(), slot + 1, size) - 1;
+            System.arraycopy(ranked, slot + 1, ranked, slot, target - slot);
+            System.arraycopy(scores, slot + 1, scores, slot, target - slot);
+        }
+        ranked[target] = player;
+        scores[target] = score;
+        for (int i = Math.min(slot, target); i <= Math.max(slot, target); i++) {
+            ranked[i].setLeaderboard(this, i);
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package game;
+
+import java.lang.ref.SoftReference;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import map.Map;
+import map.MapGenerator;
+import map.ShoreGrowthGenerator;
+
+/**
+ * Keeps maps generated ahead of time for the player counts and land densities games are started with, so a game
+ * can take a finished map when recruitment closes instead of generating one on the spot.  Maps are grouped into
+ * buckets by player count and density, and each bucket is refilled in the background up to a fixed number of maps
+ * whenever one is taken.
+ * <br>
+ * The pool is bounded in two ways.  Only a fixed number of buckets are kept, and when a new bucket would go past
+ * that the least recently used bucket is dropped.  Pooled maps are also only softly referenced, so under memory
+ * pressure the collector may reclaim them; a reclaimed map is simply treated as missing.  Every take is counted as
+ * a hit when a pooled map was handed out, or a miss when the map had to be generated on the caller's thread.
+ * <br>
+ * Pooled maps are generated from the pool's own random stream, so a game started from the pool can't regenerate
+ * its map from the game's seed.
+ */
+public class MapPool {
+    private final int mapsPerBucket;
+    private final MapGenerator generator;
+    private final ExecutorService generators;
+    //access ordered, so iteration starts at the least recently used bucket
+    private final LinkedHashMap<Key, Bucket> buckets;
+    private final SplittableRandom random;
+    private final LongAdder hits, misses, reclaimed, evictions;
+    private volatile boolean closed;
+
+    /**
+     * Creates a pool that generates maps with a {@link ShoreGrowthGenerator} on a single background thread.
+     * @param mapsPerBucket the number of maps kept ready for each player count and density
+     * @param maxBuckets the number of player count and density pairs maps are kept for
+     */
+    public MapPool(int mapsPerBucket, int maxBuckets) {
+        this(mapsPerBucket, maxBuckets, new ShoreGrowthGenerator(), 1);
+    }
+
+    /**
+     * @param mapsPerBucket the number of maps kept ready for each player count and density
+     * @param maxBuckets the number of player count and density pairs maps are kept for
+     * @param generator the generator pooled maps are filled with land by
+     * @param generatorThreads the number of background threads maps are generated on
+     */
+    public MapPool(int mapsPerBucket, int maxBuckets, MapGenerator generator, int generatorThreads) {
+        if (mapsPerBucket < 1 || maxBuckets < 1) {
+            throw new IllegalArgumentException("mapsPerBucket and maxBuckets must be positive");
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "map-pool-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        };
+        this.mapsPerBucket = mapsPerBucket;
+        this.generator = generator;
+        this.generators = Executors.newFixedThreadPool(generatorThreads, threadFactory);
+        this.buckets = new LinkedHashMap<Key, Bucket>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(java.util.Map.Entry<Key, Bucket> eldest) {
+                if (size() > maxBuckets) {
+                    eldest.getValue().evicted = true;
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.random = new SplittableRandom();
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.reclaimed = new LongAdder();
+        this.evictions = new LongAdder();
+    }
+
+    /**
+     * Starts filling the bucket for a player count and density in the background, so the first game to ask for
+     * it gets a pooled map.
+     */
+    public void warm(int numOfPlayers, Game.LandDensity density) {
+        refill(bucket(new Key(numOfPlayers, density)));
+    }
+
+    /**
+     * Takes a map for a game.  A pooled map is handed out if one is ready, and otherwise a new map is generated on
+     * the calling thread.  Either way the bucket is refilled in the background.
+     * @param numOfPlayers the number of players the map needs spawn points for
+     * @param density the land density of the map
+     * @return a map no other caller has been given
+     */
+    public Map take(int numOfPlayers, Game.LandDensity density) {
+        Key key = new Key(numOfPlayers, density);
+        Bucket bucket = bucket(key);
+        Map map = bucket.poll();
+
+        refill(bucket);
+        if (map != null) {
+            hits.increment();
+            return map;
+        }
+        misses.increment();
+        return generate(key);
+    }
+
+    /**
+     * Stops generating maps.  Maps already pooled can still be taken, but buckets are no longer refilled.
+     */
+    public void shutdown() {
+        closed = true;
+        generators.shutdownNow();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of pooled maps the collector reclaimed before they were taken
+     */
+    public long getReclaimed() {
+        return reclaimed.sum();
+    }
+
+    /**
+     * @return the number of buckets dropped to stay within the bucket limit
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return the number of live maps currently pooled across all buckets
+     */
+    public int size() {
+        int size = 0;
+        synchronized (buckets) {
+            for (Bucket bucket : buckets.values()) {
+                size += bucket.size();
+            }
+        }
+        return size;
+    }
+
+    private Bucket bucket(Key key) {
+        synchronized (buckets) {
+            return buckets.computeIfAbsent(key, Bucket::new);
+        }
+    }
+
+    /**
+     * Queues enough background generations to bring a bucket back up to its full size.
+     */
+    private void refill(Bucket bucket) {
+        while (!closed && bucket.reserve()) {
+            try {
+                generators.execute(() -> {
+                    boolean pooled = false;
+                    try {
+                        if (!closed && !bucket.evicted) {
+                            bucket.offer(generate(bucket.key));
+                            pooled = true;
+                        }
+                    } finally {
+                        if (!pooled) {
+                            bucket.release();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                bucket.release();
+                return;
+            }
+        }
+    }
+
+    private Map generate(Key key) {
+        SplittableRandom mapRandom;
+        synchronized (random) {
+            mapRandom = random.split();
+        }
+        return new Map(key.numOfPlayers, key.density.getLandRatio(), 0, generator, mapRandom);
+    }
+
+    private static final class Key {
+        private final int numOfPlayers;
+        private final Game.LandDensity density;
+
+        private Key(int numOfPlayers, Game.LandDensity density) {
+            //maps always have spawn points for at least 4 players
+            this.numOfPlayers = Math.max(4, numOfPlayers);
+            this.density = density;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return numOfPlayers == key.numOfPlayers && density == key.density;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(numOfPlayers, density);
+        }
+    }
+
+    /**
+     * The pooled maps for one player count and density.  Maps that are pooled or being generated both count
+     * towards the bucket's size, so a burst of takes never queues more generations than the bucket can hold.
+     */
+    private final class Bucket {
+        private final Key key;
+        private final ConcurrentLinkedQueue<SoftReference<Map>> maps;
+        private final AtomicInteger reserved;
+        //set once the bucket is dropped from the pool, so queued generations for it are skipped
+        private volatile boolean evicted;
+
+        private Bucket(Key key) {
+            this.key = key;
+            this.maps = new ConcurrentLinkedQueue<>();
+            this.reserved = new AtomicInteger();
+        }
+
+        /**
+         * @return the next live map, or null if the bucket has none
+         */
+        private Map poll() {
+            SoftReference<Map> reference;
+            Map map;
+            while ((reference = maps.poll()) != null) {
+                map = reference.get();
+                release();
+                if (map != null) {
+                    return map;
+                }
+                reclaimed.increment();
+            }
+            return null;
+        }
+
+        private void offer(Map map) {
+            maps.offer(new SoftReference<>(map));
+        }
+
+        /**
+         * Claims room in the bucket for one more map.
+         * @return false if the bucket is already full
+         */
+        private boolean reserve() {
+            int current;
+            do {
+                current = reserved.get();
+                if (current >= mapsPerBucket) {
+                    return false;
+                }
+            } while (!reserved.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        private void release() {
+            reserved.decrementAndGet();
+        }
+
+        private int size() {
+            int size = 0;
+            for (SoftReference<Map> reference : maps) {
+                if (reference.get() != null) {
+                    size++;
+                }
+            }
+            return size;
+        }
+    }
+}
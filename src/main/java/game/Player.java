@@ -1,29 +1,48 @@
 package game;
 
-import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
 
+import map.ExpansionFrontier;
+import map.Glyphs;
+import map.IndexedCellSet;
 import map.MapCell;
+import map.TerritoryBounds;
 
 public class Player {
     //game.Player ids are unique per game, and range from 97-122 [inclusive-inclusive] which are the ascii decimal codes for lower case letters.
+    //In a large lobby they run upwards from 128 instead, see Game#enableLargeLobby.
     private Integer id, expansionFund;
     private long externalId;
     private char weakDisplay, strongDisplay;
-    private ArrayList<MapCell> territory, westBorders, northBorders, eastBorders, southBorders;
+    private IndexedCellSet territory, weakTerritory, westBorders, northBorders, eastBorders, southBorders;
     private String username;
     private HashMap<Integer, Player> enemyMap;
+    private ExpansionFrontier frontier;
+    private TerritoryBounds bounds;
+    private SplittableRandom random;
+    //the leaderboard of the player's game, kept informed of territory changes, and the player's slot on it
+    private Leaderboard leaderboard;
+    private int leaderboardSlot;
+    //guards the player's territory, borders, frontier, funds and enemies when a game expands concurrently
+    private final ReentrantLock lock = new ReentrantLock();
 
     public Player(String username, long externalId) {
         this.expansionFund = 0;
         this.username = username;
         this.externalId = externalId;
-        this.territory = new ArrayList<>();
-        this.westBorders = new ArrayList<>();
-        this.northBorders = new ArrayList<>();
-        this.eastBorders = new ArrayList<>();
-        this.southBorders = new ArrayList<>();
+        this.territory = new IndexedCellSet();
+        this.weakTerritory = new IndexedCellSet();
+        this.westBorders = new IndexedCellSet();
+        this.northBorders = new IndexedCellSet();
+        this.eastBorders = new IndexedCellSet();
+        this.southBorders = new IndexedCellSet();
         this.enemyMap = new HashMap<>();
+        this.frontier = new ExpansionFrontier();
+        this.bounds = new TerritoryBounds();
+        this.random = new SplittableRandom();
     }
 
     protected Player (String username, Integer id, char weakDisplay, char strongDisplay) {
@@ -41,8 +60,29 @@ public class Player {
         enemyMap.remove(player.getId());
     }
 
+    /**
+     * Adds a cell to the player's territory.  WEAK cells are also added to the player's weak territory, and the
+     * bounding box of the territory grows to cover the cell.
+     * @param cell the cell the player now owns
+     */
     public void addToTerritory(MapCell cell) {
-        territory.add(cell);
+        if (territory.add(cell)) {
+            bounds.add(cell);
+            if (leaderboard != null) {
+                leaderboard.increment(this);
+            }
+        }
+        if (cell.getHp() == MapCell.HP.WEAK) {
+            weakTerritory.add(cell);
+        }
+    }
+
+    public void addToWeakTerritory(MapCell cell) {
+        weakTerritory.add(cell);
+    }
+
+    public void removeFromWeakTerritory(MapCell cell) {
+        weakTerritory.remove(cell);
     }
 
     public void addToWestBorder(MapCell cell) {
@@ -78,7 +118,13 @@ public class Player {
     }
 
     public void removeFromTerritory(MapCell cell) {
-        territory.remove(cell);
+        if (territory.remove(cell)) {
+            bounds.remove(cell);
+            if (leaderboard != null) {
+                leaderboard.decrement(this);
+            }
+        }
+        weakTerritory.remove(cell);
     }
 
     public void addToExpansionFund(Integer units) {
@@ -99,8 +145,65 @@ public class Player {
 
     public void setId (Integer id) {
         this.id = id;
-        weakDisplay = (char) id.intValue();
-        strongDisplay = (char) (id - 32);
+        weakDisplay = Glyphs.weak(id);
+        strongDisplay = Glyphs.strong(id);
+    }
+
+    /**
+     * @return the random stream the player's expansion targets are drawn from.  A game gives each of its players
+     *         a stream split from the game's own, so a player's draws never depend on another thread's.
+     */
+    public SplittableRandom getRandom () {
+        return random;
+    }
+
+    void setRandom (SplittableRandom random) {
+        this.random = random;
+    }
+
+    /**
+     * Empties the player's territory, weak territory, borders and frontier, and rebuilds the enemy map in order of
+     * id, so that a player rebuilt from a map ends up with sets in the same order as any copy rebuilt from it.
+     */
+    void resetTerritoryState () {
+        HashMap<Integer, Player> enemies = new HashMap<>();
+        enemies.putAll(new TreeMap<>(enemyMap));
+        this.territory = new IndexedCellSet();
+        this.weakTerritory = new IndexedCellSet();
+        this.westBorders = new IndexedCellSet();
+        this.northBorders = new IndexedCellSet();
+        this.eastBorders = new IndexedCellSet();
+        this.southBorders = new IndexedCellSet();
+        this.enemyMap = enemies;
+        this.frontier = new ExpansionFrontier();
+        this.bounds = new TerritoryBounds();
+        if (leaderboard != null) {
+            leaderboard.reset(this, 0);
+        }
+    }
+
+    /**
+     * Replaces the player's random stream with a new one seeded from it, so a copy of the player can pick up the
+     * same stream from the returned seed.
+     * @return the seed of the new stream
+     */
+    long reseed () {
+        long streamSeed = random.nextLong();
+        random = new SplittableRandom(streamSeed);
+        return streamSeed;
+    }
+
+    void setLeaderboard (Leaderboard leaderboard, int slot) {
+        this.leaderboard = leaderboard;
+        this.leaderboardSlot = slot;
+    }
+
+    int getLeaderboardSlot () {
+        return leaderboardSlot;
+    }
+
+    ReentrantLock getLock () {
+        return lock;
     }
 
     public String getUsername () {
@@ -127,23 +230,44 @@ public class Player {
         return enemyMap;
     }
 
-    public ArrayList<MapCell> getWestBorders () {
+    public IndexedCellSet getWestBorders () {
         return westBorders;
     }
 
-    public ArrayList<MapCell> getNorthBorders () {
+    public IndexedCellSet getNorthBorders () {
         return northBorders;
     }
 
-    public ArrayList<MapCell> getEastBorders () {
+    public IndexedCellSet getEastBorders () {
         return eastBorders;
     }
 
-    public ArrayList<MapCell> getSouthBorders () {
+    public IndexedCellSet getSouthBorders () {
         return southBorders;
     }
 
-    public ArrayList<MapCell> getTerritory () {
+    public IndexedCellSet getTerritory () {
         return territory;
     }
+
+    /**
+     * @return the land next to the player's territory that the player could expand onto
+     */
+    public ExpansionFrontier getFrontier () {
+        return frontier;
+    }
+
+    /**
+     * @return the bounding box of the player's territory
+     */
+    public TerritoryBounds getBounds () {
+        return bounds;
+    }
+
+    /**
+     * @return the cells of the player's territory that have an hp of WEAK
+     */
+    public IndexedCellSet getWeakTerritory () {
+        return weakTerritory;
+    }
 }
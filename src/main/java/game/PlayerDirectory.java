@@ -0,0 +1,58 @@
+package game;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks which hosted games every user is playing in, keyed by external id, so a bot can find a user's games
+ * without asking each game in turn.  A game reports its players once it is attached to the directory, and every
+ * player it adds afterwards, so the directory never needs to be updated by hand.
+ * <br>
+ * The directory is safe to read and update from any thread.
+ */
+public class PlayerDirectory {
+    private final ConcurrentHashMap<Long, Set<Long>> gamesByExternalId;
+
+    public PlayerDirectory() {
+        this.gamesByExternalId = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @return the ids of the games the user is playing in, which is empty if there are none.  The set is a live,
+     *          unmodifiable view.
+     */
+    public Set<Long> getGames(long externalId) {
+        Set<Long> games = gamesByExternalId.get(externalId);
+        return games == null ? Collections.emptySet() : Collections.unmodifiableSet(games);
+    }
+
+    public boolean isPlaying(long externalId, long gameId) {
+        return getGames(externalId).contains(gameId);
+    }
+
+    /**
+     * @return the number of users playing in at least one game
+     */
+    public int size() {
+        return gamesByExternalId.size();
+    }
+
+    void add(long externalId, long gameId) {
+        gamesByExternalId.compute(externalId, (id, games) -> {
+            if (games == null) {
+                games = ConcurrentHashMap.newKeySet();
+            }
+            games.add(gameId);
+            return games;
+        });
+    }
+
+    void remove(long externalId, long gameId) {
+        //the user's entry is dropped along with their last game, atomically with respect to adds
+        gamesByExternalId.computeIfPresent(externalId, (id, games) -> {
+            games.remove(gameId);
+            return games.isEmpty() ? null : games;
+        });
+    }
+}
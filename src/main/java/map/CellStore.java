@@ -0,0 +1,239 @@
+package map;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Primitive storage for the cells of a map.  Cells are addressed by a flat index of y * width + x.  Owner ids
+ * are kept as a short per cell, so a large lobby can hold thousands of players, while land/sea and STRONG/WEAK
+ * hp are kept as bits.  A new store is all sea.  {@link MapCell} instances are views onto a store, so the store
+ * is the single source of truth for cell state.
+ * <br>
+ * Hp bits are updated atomically, because cells in different regions of the map can share a word of bits and
+ * may be expanded onto at the same time.  Land bits only change while a map is generated.
+ * <br>
+ * Every change to a cell marks the cell's row as dirty, so renderings of the map only need to re-encode the rows
+ * that changed since they were last taken.  Dirty bits are set and taken atomically as well.
+ * <br>
+ * Changes are also tracked cell by cell, with a summary bit per row, for the deltas of a {@link MapDeltaLog}.
+ * Those bits are kept apart from the dirty rows, so rendering and publishing versions never take each other's
+ * changes.
+ */
+final class CellStore {
+    private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+    final int width, height;
+    private final short[] owners;
+    private final BitSet land;
+    private final long[] strong;
+    private final long[] dirtyRows;
+    private final long[] changedCells, changedRows;
+
+    CellStore(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.owners = new short[width * height];
+        this.land = new BitSet(width * height);
+        this.strong = new long[(width * height + 63) >>> 6];
+        this.dirtyRows = new long[(height + 63) >>> 6];
+        this.changedCells = new long[strong.length];
+        this.changedRows = new long[dirtyRows.length];
+        Arrays.fill(owners, (short) MapCell.SEA);
+        //nothing has been rendered yet, so every row starts out dirty
+        Arrays.fill(dirtyRows, -1L);
+    }
+
+    int size() {
+        return owners.length;
+    }
+
+    int index(int x, int y) {
+        return y * width + x;
+    }
+
+    int x(int index) {
+        return index % width;
+    }
+
+    int y(int index) {
+        return index / width;
+    }
+
+    boolean contains(int x, int y) {
+        return 0 <= x && x < width && 0 <= y && y < height;
+    }
+
+    int getOwnerId(int index) {
+        return owners[index];
+    }
+
+    void setOwnerId(int index, int ownerId) {
+        owners[index] = (short) ownerId;
+        markDirty(index);
+    }
+
+    boolean isLand(int index) {
+        return land.get(index);
+    }
+
+    boolean isStrong(int index) {
+        return (strong[index >>> 6] & (1L << index)) != 0;
+    }
+
+    void setStrong(int index, boolean isStrong) {
+        if (isStrong) {
+            WORDS.getAndBitwiseOr(strong, index >>> 6, 1L << index);
+        } else {
+            WORDS.getAndBitwiseAnd(strong, index >>> 6, ~(1L << index));
+        }
+        markDirty(index);
+    }
+
+    private void markDirty(int index) {
+        int row = index / width;
+        //rows are usually already dirty between renders, which a plain read can tell without an atomic write
+        if ((dirtyRows[row >>> 6] & (1L << row)) == 0) {
+            WORDS.getAndBitwiseOr(dirtyRows, row >>> 6, 1L << row);
+        }
+        //cells are marked before their rows, so a row stays marked while any of its changed cells are untaken
+        if ((changedCells[index >>> 6] & (1L << index)) == 0) {
+            WORDS.getAndBitwiseOr(changedCells, index >>> 6, 1L << index);
+        }
+        if ((changedRows[row >>> 6] & (1L << row)) == 0) {
+            WORDS.getAndBitwiseOr(changedRows, row >>> 6, 1L << row);
+        }
+    }
+
+    /**
+     * Takes the cells that changed since the last call, leaving them unchanged.  A cell changed while this runs
+     * is either taken now or left for the next call, so taking its value afterwards never misses a change.
+     * @return the indices of the changed cells, in ascending order
+     */
+    int[] takeChangedCells() {
+        int[] changed = new int[16];
+        int count = 0, row, start, end, word;
+        long rows, bits, mask;
+
+        for (int rowWord = 0; rowWord < changedRows.length; rowWord++) {
+            if (changedRows[rowWord] == 0) {
+                continue;
+            }
+            rows = (long) WORDS.getAndSet(changedRows, rowWord, 0L);
+            while (rows != 0) {
+                row = (rowWord << 6) + Long.numberOfTrailingZeros(rows);
+                rows &= rows - 1;
+                start = row * width;
+                end = start + width;
+                //only this row's bits are taken from words shared with the rows around it
+                for (word = start >>> 6; word << 6 < end; word++) {
+                    mask = -1L;
+                    if (word << 6 < start) {
+                        mask &= -1L << start;
+                    }
+                    if ((word + 1) << 6 > end) {
+                        mask &= -1L >>> (64 - (end & 63));
+                    }
+                    if ((changedCells[word] & mask) == 0) {
+                        continue;
+                    }
+                    bits = (long) WORDS.getAndBitwiseAnd(changedCells, word, ~mask) & mask;
+                    while (bits != 0) {
+                        if (count == changed.length) {
+                            changed = Arrays.copyOf(changed, count * 2);
+                        }
+                        changed[count++] = (word << 6) + Long.numberOfTrailingZeros(bits);
+                        bits &= bits - 1;
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(changed, count);
+    }
+
+    int getDirtyRowWordCount() {
+        return dirtyRows.length;
+    }
+
+    /**
+     * Takes one word of dirty row bits, leaving those rows clean.
+     * @param word the word to take, covering rows word * 64 through word * 64 + 63
+     * @return the bits of the rows that were dirty
+     */
+    long takeDirtyRows(int word) {
+        if (dirtyRows[word] == 0) {
+            return 0;
+        }
+        return (long) WORDS.getAndSet(dirtyRows, word, 0L);
+    }
+
+    void makeUnclaimedLand(int index) {
+        //cells that are already land don't touch their word of land bits, which keeps this safe during play
+        if (!land.get(index)) {
+            land.set(index);
+        }
+        owners[index] = (short) MapCell.LAND;
+        setStrong(index, false);
+    }
+
+    void makeSea(int index) {
+        land.clear(index);
+        owners[index] = (short) MapCell.SEA;
+        setStrong(index, false);
+    }
+
+    /**
+     * Copies the state of a cell in another store onto a cell of this store.
+     */
+    void copyCell(CellStore source, int sourceIndex, int index) {
+        owners[index] = source.owners[sourceIndex];
+        land.set(index, source.land.get(sourceIndex));
+        setStrong(index, source.isStrong(sourceIndex));
+    }
+
+    /**
+     * @return the number of bytes {@link #writeTo(ByteBuffer)} writes
+     */
+    int snapshotLength() {
+        return 8 + strong.length * 16 + owners.length * 2;
+    }
+
+    /**
+     * Writes the store's dimensions, then its land and hp bits as longs, then one owner short per cell.
+     */
+    void writeTo(ByteBuffer out) {
+        long[] landWords = Arrays.copyOf(land.toLongArray(), strong.length);
+        out.putInt(width);
+        out.putInt(height);
+        out.asLongBuffer().put(landWords).put(strong);
+        out.position(out.position() + strong.length * 16);
+        out.asShortBuffer().put(owners);
+        out.position(out.position() + owners.length * 2);
+    }
+
+    /**
+     * Reads a store written by {@link #writeTo(ByteBuffer)}.
+     * @param wideOwners false to read the single owner byte per cell written by earlier versions
+     */
+    static CellStore readFrom(ByteBuffer in, boolean wideOwners) {
+        CellStore store = new CellStore(in.getInt(), in.getInt());
+        long[] landWords = new long[store.strong.length];
+        in.asLongBuffer().get(landWords).get(store.strong);
+        in.position(in.position() + store.strong.length * 16);
+        if (wideOwners) {
+            in.asShortBuffer().get(store.owners);
+            in.position(in.position() + store.owners.length * 2);
+        } else {
+            for (int i = 0; i < store.owners.length; i++) {
+                store.owners[i] = in.get();
+            }
+        }
+        store.land.or(BitSet.valueOf(landWords));
+        return store;
+    }
+
+    int getDisplayCharId(int index) {
+        return Glyphs.glyph(owners[index], isStrong(index));
+    }
+}
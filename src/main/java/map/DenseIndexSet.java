@@ -0,0 +1,74 @@
+package map;
+
+import java.util.Arrays;
+
+/**
+ * A set of cell indices from one map with constant time add, remove, contains and access by slot.  Unlike
+ * {@link IndexedCellSet} it holds plain indices and tracks the slot of every cell in an array the size of the
+ * map, so no hashing or cell views are involved.  That suits sets that are touched once per cell of a large map,
+ * such as the shores grown during land generation.
+ */
+final class DenseIndexSet {
+    private int[] members;
+    //the slot of each cell index plus one, so an unset entry of 0 means the cell isn't in the set
+    private final int[] slots;
+    private int size;
+
+    /**
+     * @param mapSize the number of cells in the map the indices belong to
+     */
+    DenseIndexSet(int mapSize) {
+        this.members = new int[16];
+        this.slots = new int[mapSize];
+    }
+
+    boolean add(int index) {
+        if (slots[index] != 0) {
+            return false;
+        }
+        if (size == members.length) {
+            members = Arrays.copyOf(members, size * 2);
+        }
+        members[size] = index;
+        slots[index] = ++size;
+        return true;
+    }
+
+    /**
+     * Removes a cell index from the set.  The last index of the set takes over the slot of the removed one.
+     */
+    boolean remove(int index) {
+        int slot = slots[index] - 1;
+        if (slot < 0) {
+            return false;
+        }
+        int last = members[--size];
+        members[slot] = last;
+        slots[last] = slot + 1;
+        slots[index] = 0;
+        return true;
+    }
+
+    boolean contains(int index) {
+        return slots[index] != 0;
+    }
+
+    /**
+     * @param slot a value between 0 and size() - 1
+     * @return the cell index held in the given slot
+     */
+    int get(int slot) {
+        if (slot < 0 || slot >= size) {
+            throw new IndexOutOfBoundsException("slot " + slot + " of " + size);
+        }
+        return members[slot];
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+}
@@ -0,0 +1,74 @@
+package map;
+
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * The cells a player could expand onto: land that doesn't belong to the player and shares an edge with the
+ * player's territory.  Unclaimed land is kept in one set, and land owned by other players is kept in one set
+ * per owner, so targets of either kind can be drawn at random without scanning the player's borders.
+ * Cells of players the owner of the frontier is at peace with are kept as well, so declaring war doesn't
+ * require rebuilding anything.
+ */
+public class ExpansionFrontier {
+    private final IndexedCellSet unclaimedLand;
+    private final HashMap<Integer, IndexedCellSet> ownedLand;
+
+    public ExpansionFrontier() {
+        this.unclaimedLand = new IndexedCellSet();
+        this.ownedLand = new HashMap<>();
+    }
+
+    /**
+     * Adds a cell to the frontier, filed under its current owner.
+     * @param cell a land cell adjacent to the frontier owner's territory
+     */
+    public void add(MapCell cell) {
+        if (cell.getOwnerId() == MapCell.LAND) {
+            unclaimedLand.add(cell);
+        } else {
+            ownedLand.computeIfAbsent(cell.getOwnerId(), ownerId -> new IndexedCellSet()).add(cell);
+        }
+    }
+
+    /**
+     * Removes a cell from the frontier.
+     * @param index the flat index of the cell within its map
+     * @param ownerId the owner the cell was filed under when it was added
+     */
+    public void remove(int index, int ownerId) {
+        if (ownerId == MapCell.LAND) {
+            unclaimedLand.remove(index);
+        } else {
+            IndexedCellSet cells = ownedLand.get(ownerId);
+            if (cells != null) {
+                cells.remove(index);
+            }
+        }
+    }
+
+    public boolean contains(int index, int ownerId) {
+        if (ownerId == MapCell.LAND) {
+            return unclaimedLand.contains(index);
+        } else {
+            IndexedCellSet cells = ownedLand.get(ownerId);
+            return cells != null && cells.contains(index);
+        }
+    }
+
+    public IndexedCellSet getUnclaimedLand() {
+        return unclaimedLand;
+    }
+
+    /**
+     * @param ownerId the id of another player
+     * @return the frontier cells owned by the given player, or null if there have never been any
+     */
+    public IndexedCellSet getOwnedLand(int ownerId) {
+        return ownedLand.get(ownerId);
+    }
+
+    public Collection<IndexedCellSet> getAllOwnedLand() {
+        return ownedLand.values();
+    }
+}
@@ -0,0 +1,51 @@
+package map;
+
+/**
+ * The characters cells are drawn with, looked up by owner id.  Owner ids below 128 are ASCII characters and are
+ * drawn as themselves: the lower case letters of a classic game's players, {@link MapCell#LAND} and
+ * {@link MapCell#SEA}.  Strong cells of those players are drawn in upper case.
+ * <br>
+ * Large lobbies give players ids from 128 up, which no longer fit in a character.  Those players are drawn from
+ * a palette of letters by id, so neighbouring territories can share a letter and a client that needs to tell
+ * every player apart has to read owner ids rather than rely on glyphs.  Map updates carry owner ids for this, and
+ * a {@link MapReplica} exposes them with {@link MapReplica#getOwnerId(int, int)}.
+ */
+public final class Glyphs {
+    //the first id that isn't an ASCII character
+    public static final int FIRST_PALETTE_ID = 128;
+    private static final int PALETTE_SIZE = 26;
+    private static final byte[] WEAK = new byte[Short.MAX_VALUE + 1], STRONG = new byte[Short.MAX_VALUE + 1];
+
+    static {
+        for (int id = 0; id < WEAK.length; id++) {
+            if (id < FIRST_PALETTE_ID) {
+                WEAK[id] = (byte) id;
+                STRONG[id] = (byte) (id - 32);
+            } else {
+                WEAK[id] = (byte) ('a' + (id - FIRST_PALETTE_ID) % PALETTE_SIZE);
+                STRONG[id] = (byte) ('A' + (id - FIRST_PALETTE_ID) % PALETTE_SIZE);
+            }
+        }
+    }
+
+    private Glyphs() {
+    }
+
+    /**
+     * @return the character a WEAK cell owned by the given id is drawn with
+     */
+    public static char weak(int ownerId) {
+        return (char) WEAK[ownerId];
+    }
+
+    /**
+     * @return the character a STRONG cell owned by the given id is drawn with
+     */
+    public static char strong(int ownerId) {
+        return (char) STRONG[ownerId];
+    }
+
+    static int glyph(int ownerId, boolean isStrong) {
+        return isStrong ? STRONG[ownerId] : WEAK[ownerId];
+    }
+}
@@ -0,0 +1,193 @@
+package map;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A set of cells from one map with constant time add, remove, contains and access by slot.  Cells are packed
+ * into a dense array, and removing a cell moves the last cell into its slot.  A hash table keyed by cell index
+ * tracks the slot of every cell, so membership never requires a scan.  Picking a random cell is a matter of
+ * picking a random slot between 0 and size() - 1.
+ * <br>
+ * The order of cells changes as cells are removed.  The set must not be modified while it is being iterated.
+ */
+public class IndexedCellSet implements Iterable<MapCell> {
+    private static final int EMPTY = -1;
+    private MapCell[] cells;
+    //open addressing table from cell index to slot, using linear probing
+    private int[] keys, slots;
+    private int size, mask, shift;
+
+    public IndexedCellSet() {
+        this(8);
+    }
+
+    public IndexedCellSet(int expectedSize) {
+        int tableSize = Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) << 1;
+        this.cells = new MapCell[Math.max(4, expectedSize)];
+        this.keys = new int[tableSize];
+        this.slots = new int[tableSize];
+        this.mask = tableSize - 1;
+        this.shift = Integer.numberOfLeadingZeros(mask);
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * Adds a cell to the set.
+     * @param cell the cell to add
+     * @return true if the cell was added, false if it was already in the set
+     */
+    public boolean add(MapCell cell) {
+        if (findPosition(cell.getIndex()) != EMPTY) {
+            return false;
+        }
+        if (size == cells.length) {
+            cells = Arrays.copyOf(cells, size * 2);
+        }
+        if ((size + 1) * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        cells[size] = cell;
+        insert(cell.getIndex(), size);
+        size++;
+        return true;
+    }
+
+    public boolean remove(MapCell cell) {
+        return remove(cell.getIndex());
+    }
+
+    /**
+     * Removes the cell with the given map index from the set.  The last cell of the set takes over the slot
+     * of the removed cell.
+     * @param index the flat index of the cell within its map
+     * @return true if the cell was in the set
+     */
+    public boolean remove(int index) {
+        int position = findPosition(index);
+        if (position == EMPTY) {
+            return false;
+        }
+        int slot = slots[position];
+        MapCell last = cells[size - 1];
+        cells[slot] = last;
+        cells[size - 1] = null;
+        size--;
+        if (last.getIndex() != index) {
+            slots[findPosition(last.getIndex())] = slot;
+        }
+        delete(position);
+        return true;
+    }
+
+    public boolean contains(MapCell cell) {
+        return contains(cell.getIndex());
+    }
+
+    public boolean contains(int index) {
+        return findPosition(index) != EMPTY;
+    }
+
+    /**
+     * @param slot a value between 0 and size() - 1
+     * @return the cell held in the given slot
+     */
+    public MapCell get(int slot) {
+        if (slot < 0 || slot >= size) {
+            throw new IndexOutOfBoundsException("slot " + slot + " of " + size);
+        }
+        return cells[slot];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(cells, 0, size, null);
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    @Override
+    public Iterator<MapCell> iterator() {
+        return new Iterator<MapCell>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public MapCell next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                return cells[next++];
+            }
+        };
+    }
+
+    private int hash(int index) {
+        return (index * 0x9E3779B9) >>> shift;
+    }
+
+    /**
+     * @return the table position holding the given cell index, or EMPTY if the index isn't in the table
+     */
+    private int findPosition(int index) {
+        int position = hash(index);
+        while (keys[position] != EMPTY) {
+            if (keys[position] == index) {
+                return position;
+            }
+            position = (position + 1) & mask;
+        }
+        return EMPTY;
+    }
+
+    private void insert(int index, int slot) {
+        int position = hash(index);
+        while (keys[position] != EMPTY) {
+            position = (position + 1) & mask;
+        }
+        keys[position] = index;
+        slots[position] = slot;
+    }
+
+    /**
+     * Empties a table position, shifting any following entries of the same probe run back so that lookups
+     * never stop early on the emptied position.
+     */
+    private void delete(int position) {
+        int next = (position + 1) & mask;
+        while (keys[next] != EMPTY) {
+            int home = hash(keys[next]);
+            //move the entry back if its home isn't cyclically between the emptied position and its current one
+            if (((next - home) & mask) >= ((next - position) & mask)) {
+                keys[position] = keys[next];
+                slots[position] = slots[next];
+                position = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[position] = EMPTY;
+    }
+
+    private void rehash(int tableSize) {
+        keys = new int[tableSize];
+        slots = new int[tableSize];
+        mask = tableSize - 1;
+        shift = Integer.numberOfLeadingZeros(mask);
+        Arrays.fill(keys, EMPTY);
+        for (int slot = 0; slot < size; slot++) {
+            insert(cells[slot].getIndex(), slot);
+        }
+    }
+}
@@ -1,29 +1,124 @@
 package map;
 
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Random;
+import java.util.SplittableRandom;
 
 import game.Player;
+import metrics.Metric;
+import metrics.Metrics;
 
 public class Map {
-    private MapCell[][] map;
-    private final ArrayList<MapCell> westShores, northShores, eastShores, southShores, unclaimedLand, spawnPoints;
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    private CellStore cells;
+    private final ArrayList<MapCell> spawnPoints;
     private Integer width, height;
+    //drives map generation only; expansion targets are drawn from each player's own stream
+    private final SplittableRandom random;
+    //the cached rendering of the map, each row followed by a line separator
+    private final Object renderLock = new Object();
+    private byte[] rendered;
+    private int rowStride;
+    //the cached rendering as a string, dropped whenever a row is re-encoded, by whichever render refreshes it
+    private String renderedString;
+    //the streaming renders still reading the cached bytes, which must then be copied before they are changed
+    private int renderReaders;
+    private final MapDeltaLog deltas;
 
     public Map(Integer numOfPlayers, double landRatio) {
-        westShores = new ArrayList<>();
-        northShores = new ArrayList<>();
-        eastShores = new ArrayList<>();
-        southShores = new ArrayList<>();
-        unclaimedLand = new ArrayList<>();
+        this(numOfPlayers, landRatio, new SplittableRandom());
+    }
+
+    /**
+     * Generates a map from the given random stream, so the same stream state always generates the same map.
+     */
+    public Map(Integer numOfPlayers, double landRatio, SplittableRandom random) {
+        this(numOfPlayers, landRatio, 0, random);
+    }
+
+    /**
+     * Generates a map at least as tall as the given height, and 3 times as wide.  Spawns are spread out over the
+     * whole map, so a large map leaves more room between players rather than more sea around them.
+     * @param minHeight the smallest height the map may have.  Smaller maps are sized from the number of players.
+     */
+    public Map(Integer numOfPlayers, double landRatio, int minHeight, SplittableRandom random) {
+        this(numOfPlayers, landRatio, minHeight, new ShoreGrowthGenerator(), random);
+    }
+
+    /**
+     * Generates a map whose land, beyond the spawns and the corridors between them, is added by the given
+     * generator.
+     * @param generator the generator that fills the map with land
+     */
+    public Map(Integer numOfPlayers, double landRatio, int minHeight, MapGenerator generator,
+               SplittableRandom random) {
+        this.random = random;
         spawnPoints = new ArrayList<>();
         if (numOfPlayers < 4) {
             numOfPlayers = 4;
         }
-        generateSpawnPointMap(numOfPlayers);
+        generateSpawnPointMap(numOfPlayers, minHeight);
         //Add additional land to flesh out map
-        generateLand(map, landRatio);
+        generator.generateLand(this, landRatio, random);
+        this.deltas = new MapDeltaLog(cells);
+    }
+
+    /**
+     * Creates a map around existing storage, without generating anything.
+     */
+    private Map(CellStore cells) {
+        this.cells = cells;
+        this.width = cells.width;
+        this.height = cells.height;
+        this.random = new SplittableRandom();
+        this.spawnPoints = new ArrayList<>();
+        this.deltas = new MapDeltaLog(cells);
+    }
+
+    /**
+     * @return the number of bytes {@link #writeSnapshot(ByteBuffer)} writes
+     */
+    public int getSnapshotLength() {
+        return cells.snapshotLength() + 4 + spawnPoints.size() * 4;
+    }
+
+    /**
+     * Writes the state of every cell, followed by the map's spawn points, in a form
+     * {@link #readSnapshot(ByteBuffer)} can restore.
+     */
+    public void writeSnapshot(ByteBuffer out) {
+        cells.writeTo(out);
+        out.putInt(spawnPoints.size());
+        for (MapCell spawnPoint : spawnPoints) {
+            out.putInt(spawnPoint.getIndex());
+        }
+    }
+
+    /**
+     * Restores a map written by {@link #writeSnapshot(ByteBuffer)}.
+     */
+    public static Map readSnapshot(ByteBuffer in) {
+        return readSnapshot(in, true);
+    }
+
+    /**
+     * Restores a map written by {@link #writeSnapshot(ByteBuffer)}, or by an earlier version that wrote owner ids
+     * as single bytes.
+     * @param wideOwners false if the snapshot holds one owner byte per cell
+     */
+    public static Map readSnapshot(ByteBuffer in, boolean wideOwners) {
+        Map map = new Map(CellStore.readFrom(in, wideOwners));
+        int spawnCount = in.getInt();
+        for (int i = 0; i < spawnCount; i++) {
+            map.spawnPoints.add(map.getCell(in.getInt()));
+        }
+        return map;
     }
 
     /**
@@ -31,144 +126,68 @@ public class Map {
      * players.  game.Player spawns will be connected by land in such a way that any spawn
      * location can "access" any other be enough moves across land cells
      * @param numOfPlayers the number of players that the map should have spawn points for
+     * @param minHeight the smallest height the map may have
      */
-    private void generateSpawnPointMap (Integer numOfPlayers) {
-        HashMap<Integer, MapPoint> idPointMap = new HashMap<>();
+    private void generateSpawnPointMap (Integer numOfPlayers, int minHeight) {
+        SpawnPlacer placer = new SpawnPlacer(numOfPlayers, random);
         ArrayList<MapCell> cornerSpawns = new ArrayList<>();
-        int xOffset, yOffset;
-        boolean mapSizeIsValid = false;
-        Random rand = new Random();
-        MapPoint farLeft = null,
-            farRight = null,
-            farUp = null,
-            farDown = null;
-
-        //Create spawn points to define map
-        while (!mapSizeIsValid){
-            generateSpawnPoints(numOfPlayers, idPointMap);
-            assert !idPointMap.isEmpty();
-            //Determine the extreme x and y values that where generated
-            for (MapPoint point : idPointMap.values()) {
-                if (farLeft == null || point.x < farLeft.x) {
-                    farLeft = point;
-                }
-                if (farRight == null || point.x > farRight.x) {
-                    farRight = point;
-                }
-                if (farUp == null || point.y > farUp.y) {
-                    farUp = point;
-                }
-                if (farDown == null ||point.y < farDown.y) {
-                    farDown = point;
-                }
+        MapCell neighbor;
+        int x, y, xScale, yScale,
+            farLeft = 0,
+            farRight = 0,
+            farUp = 0,
+            farDown = 0;
+
+        //Place spawn points to define map, leaving a margin of sea around them.  Maps taller than the spawns
+        //need have their spawns stretched across them, which only ever moves spawns further apart.
+        placer.place();
+        height = Math.max(placer.getSpanY() + 5, minHeight);
+        width = Math.max(placer.getSpanX() + 6, height * 3);
+        yScale = (height - 5) / placer.getSpanY();
+        xScale = (width - 6) / placer.getSpanX();
+        cells = new CellStore(width, height);
+        for (int i = 0; i < numOfPlayers; i++) {
+            x = placer.getX(i) * xScale + 2;
+            y = placer.getY(i) * yScale + 2;
+            makeLand(cells.index(x, y));
+            spawnPoints.add(getCell(x, y));
+            //Determine the spawns with the extreme x and y values
+            if (placer.getX(i) < placer.getX(farLeft)) {
+                farLeft = i;
             }
-
-            width = Math.abs(farRight.x - farLeft.x) + 6;
-            height = Math.abs(farUp.y - farDown.y) + 5;
-            if (height > numOfPlayers / 4 && 4 >= width / height && width / height >= 2) {
-                mapSizeIsValid = true;
-            } else {
-                idPointMap = new HashMap<>();
-                farLeft = null;
-                farRight = null;
-                farUp = null;
-                farDown = null;
+            if (placer.getX(i) > placer.getX(farRight)) {
+                farRight = i;
+            }
+            if (placer.getY(i) > placer.getY(farUp)) {
+                farUp = i;
+            }
+            if (placer.getY(i) < placer.getY(farDown)) {
+                farDown = i;
             }
         }
 
-        map = new MapCell[width][height];
-        fillSea(map);
-        xOffset = (farLeft.x * -1) + 2;
-        yOffset = (farDown.y * -1) + 2;
-        for (MapPoint point : idPointMap.values()) {
-            point.x += xOffset;
-            point.y += yOffset;
-            map[point.x][point.y].makeUnclaimedLand();
-            addToShoresLists(map, map[point.x][point.y]);
-            spawnPoints.add(map[point.x][point.y]);
-        }
-
-        cornerSpawns.add(map[farLeft.x][farLeft.y]);
-        cornerSpawns.add(map[farRight.x][farRight.y]);
-        cornerSpawns.add(map[farUp.x][farUp.y]);
-        cornerSpawns.add(map[farDown.x][farDown.y]);
+        cornerSpawns.add(spawnPoints.get(farLeft));
+        cornerSpawns.add(spawnPoints.get(farRight));
+        cornerSpawns.add(spawnPoints.get(farUp));
+        cornerSpawns.add(spawnPoints.get(farDown));
 
         //Connect all the spawn points with land cells
-        connectSpawnsWithLand(map[farLeft.x][farLeft.y], map[farRight.x][farRight.y]);
-        connectSpawnsWithLand(map[farUp.x][farUp.y], map[farDown.x][farDown.y]);
-        for (MapPoint point : idPointMap.values()) {
-            if (!cornerSpawns.contains(map[point.x][point.y])) {
-                connectSpawnsWithLand(map[point.x][point.y], cornerSpawns.get(rand.nextInt(4)));
+        connectSpawnsWithLand(cornerSpawns.get(0), cornerSpawns.get(1));
+        connectSpawnsWithLand(cornerSpawns.get(2), cornerSpawns.get(3));
+        for (MapCell spawnPoint : spawnPoints) {
+            if (!cornerSpawns.contains(spawnPoint)) {
+                connectSpawnsWithLand(spawnPoint, cornerSpawns.get(random.nextInt(4)));
             }
         }
 
         //Make all neighboring cells land to ensure at least 8 neighboring land cells
-        for (MapPoint point : idPointMap.values()) {
+        for (MapCell spawnPoint : spawnPoints) {
             for (NeighborLocation nloc : NeighborLocation.values()) {
-                if (!map[point.x + nloc.x][point.y + nloc.y].isLand()) {
-                    map[point.x + nloc.x][point.y + nloc.y] = MapCell.createLandCell(point.x + nloc.x, point.y + nloc.y);
-                    addToShoresLists(map, map[point.x + nloc.x][point.y + nloc.y]);
-                }
-            }
-        }
-    }
-
-    /**
-     * Populates the provided HashMap with a number of spawn points.  Spawns will have at least 2
-     * cells of space between them and any other spawn. game.Player spawns will not be an equal
-     * distance from every other player spawn.
-     * @param numOfPoints the number of points to be generated and added to the map
-     * @param pointMap the map that the points should be added to
-     */
-    private void generateSpawnPoints (int numOfPoints, HashMap<Integer, MapPoint> pointMap) {
-        int tempX, tempY, relX, relY, nextId, nextRel;
-        boolean neg, valid;
-        Random rand = new Random();
-
-        nextId = 0;
-        //insert starting point
-        pointMap.put(nextId++, new MapPoint(0, 0));
-        relX = 0;
-        relY = 0;
-
-        while (pointMap.keySet().size() < numOfPoints) {
-            //Generate a tentative x and y value for a new point
-            tempX = rand.nextInt(10);
-            if (tempX < 2) {
-                tempY = rand.nextInt(4) + 2;
-            } else {
-                tempY = rand.nextInt(4);
-            }
-
-            //Determine if the new x and y will be less than or larger than
-            // our selected relative point
-            neg = rand.nextInt(2) == 0;
-            if (neg) {
-                tempX -= relX;
-            } else {
-                tempX += relX;
-            }
-            neg = rand.nextInt(2) == 0;
-            if (neg) {
-                tempY -= relY;
-            } else {
-                tempY += relY;
-            }
-
-            valid = true;
-            //if the new point is within 2 cells of another spawn point, it isn't valid and can't be added.
-            for (MapPoint point : pointMap.values()) {
-                if (Math.abs(tempX - point.x) <= 3 && Math.abs(tempY - point.y) <= 3){
-                    valid = false;
-                    break;
+                neighbor = getCell(spawnPoint.getxLoc() + nloc.x, spawnPoint.getyLoc() + nloc.y);
+                if (!neighbor.isLand()) {
+                    makeLand(neighbor.getIndex());
                 }
             }
-            if (valid) {
-                pointMap.put(nextId++, new MapPoint(tempX, tempY));
-            }
-            nextRel = rand.nextInt(pointMap.size());
-            relX = pointMap.get(nextRel).x;
-            relY = pointMap.get(nextRel).y;
         }
     }
 
@@ -178,204 +197,104 @@ public class Map {
         while (currentX != spawn2.getxLoc() || currentY != spawn2.getyLoc()) {
             if (currentX < spawn2.getxLoc()) {
                 currentX++;
-                map[currentX][currentY].makeUnclaimedLand();
-                addToShoresLists(map, map[currentX][currentY]);
+                makeLand(cells.index(currentX, currentY));
             }
             if (currentY < spawn2.getyLoc()) {
                 currentY++;
-                map[currentX][currentY].makeUnclaimedLand();
-                addToShoresLists(map, map[currentX][currentY]);
+                makeLand(cells.index(currentX, currentY));
             }
             if (currentX > spawn2.getxLoc()) {
                 currentX--;
-                map[currentX][currentY].makeUnclaimedLand();
-                addToShoresLists(map, map[currentX][currentY]);
+                makeLand(cells.index(currentX, currentY));
             }
             if (currentY > spawn2.getyLoc()) {
                 currentY--;
-                map[currentX][currentY].makeUnclaimedLand();
-                addToShoresLists(map, map[currentX][currentY]);
+                makeLand(cells.index(currentX, currentY));
             }
         }
     }
 
     /**
-     * Adds more land to the given map until the land to sea ratio matches the given ratio.  Land is added one cell
-     * at a time along either a northern, eastern, southern, or western shore selected at random.
-     * @param map the map to fill with land
-     * @param landRatio the ratio of land to sea that the map should match.  Value must be between 0 and 1
+     * Turns the cell at the given index into unclaimed land.  Cells that are already land are left untouched.
+     * This is how a {@link MapGenerator} adds land, and shouldn't be used once a game is running on the map.
+     * @param index the index of the cell to make land
      */
-    private void generateLand(MapCell[][] map, double landRatio) {
-        double landCellMax = Math.floor((height * width) * landRatio);
-        int dirCode, landCellCount = 0;
-        Random rand = new Random();
-
-        for (MapCell[] cellRow : map) {
-            for(MapCell cell : cellRow) {
-                if (cell.isLand()) {
-                    landCellCount++;
-                }
-            }
-        }
-
-        MapCell newCell;
-        int totalTries = 0;
-        while (landCellCount < landCellMax) {
-            dirCode = rand.nextInt(4);
-            if (dirCode == 0) {
-                newCell = addRandomLandToShore(Direction.WEST);
-            } else if (dirCode == 1) {
-                newCell = addRandomLandToShore(Direction.NORTH);
-            } else if (dirCode == 2) {
-                newCell = addRandomLandToShore(Direction.EAST);
-            } else {
-                newCell = addRandomLandToShore(Direction.SOUTH);
-            }
-            unclaimedLand.add(newCell);
-            if (newCell == null) {
-                landCellCount--;
-            }
-            totalTries++;
-            if (totalTries == 10000) {
-                System.out.println("land generation aborted after maximum tries");
-                break;
-            }
-            landCellCount++;
+    public void makeLand (int index) {
+        if (!cells.isLand(index)) {
+            cells.makeUnclaimedLand(index);
         }
     }
 
     /**
-     * Fills all empty cells in a map with Sea Cells
-     * @param map the map to fill with sea cells
+     * Attempts to find a cell adjacent to a game.Player's territory that is a valid expansion target.
+     * Unclaimed and enemy land are drawn at random from the player's {@link ExpansionFrontier}.  Other
+     * types of target are searched for along the player's borders using a {@link MapCellComparator}.
+     * @param player The player whose borders should be searched
+     * @param comparatorType The type of expansion target to be searched for
+     * @return A map.MapCell that is a valid expansion target, null if none are found
      */
-    private void fillSea(MapCell[][] map) {
-        for (int y=0; y<height; y++){
-            for (int x = 0; x < width; x++){
-                if (map[x][y] == null) {
-                    map[x][y] = MapCell.createOceanCell(x, y);
-                }
-            }
+    public MapCell findExpansionTarget (Player player, MapCellComparator.Type comparatorType) {
+        MapCell target;
+        switch (comparatorType) {
+            case UNCLAIMED_LAND:
+                target = findUnclaimedTarget(player);
+                break;
+            case ENEMY_LAND:
+                target = findEnemyTarget(player);
+                break;
+            default:
+                return searchBorders(player, comparatorType);
         }
+        //a draw from the frontier looks at the one slot it picks, or none when there is nothing to pick from
+        Metrics.getSink().record(Metric.TARGET_CELLS_SCANNED, target == null ? 0 : 1);
+        return target;
     }
 
-    /**
-     * Adds a new cell of land to a random shore.  The shore is picked from one of the shore lists, the specific list
-     * determined by the passed shore.
-     * @param shore determines what kind of shore the new cell will be placed along.
-     * @return the newly placed cell, or null if no new cell could be placed.
-     */
-    private MapCell addRandomLandToShore (Direction shore) {
-        MapCell originShore;
-        int x,y;
-        Random rand = new Random();
-
-        switch (shore) {
-            case WEST:
-                if(westShores.size() > 0) {
-                    originShore = westShores.get(rand.nextInt(westShores.size()));
-                    x = originShore.getxLoc() - 1;
-                    y = originShore.getyLoc();
-                    map[x][y] = MapCell.createLandCell(x, y);
-                    //with new cell created, need to manage lists of shores
-                    addToShoresLists(map, map[x][y]);
-                    return map[x][y];
-                } else {
-                    return null;
-                }
-            case NORTH:
-                if (northShores.size() > 0) {
-                    originShore = northShores.get(rand.nextInt(northShores.size()));
-                    x = originShore.getxLoc();
-                    y = originShore.getyLoc() - 1;
-                    map[x][y] = MapCell.createLandCell(x, y);
-                    addToShoresLists(map, map[x][y]);
-                    return map[x][y];
-                } else {
-                    return null;
-                }
-            case EAST:
-                if (eastShores.size() > 0) {
-                    originShore = eastShores.get(rand.nextInt(eastShores.size()));
-                    x = originShore.getxLoc() + 1;
-                    y = originShore.getyLoc();
-                    map[x][y] = MapCell.createLandCell(x, y);
-                    addToShoresLists(map, map[x][y]);
-                    return map[x][y];
-                } else {
-                    return null;
-                }
-            case SOUTH:
-                if (southShores.size() > 0) {
-                    originShore = southShores.get(rand.nextInt(southShores.size()));
-                    x = originShore.getxLoc();
-                    y = originShore.getyLoc() + 1;
-                    map[x][y] = MapCell.createLandCell(x, y);
-                    addToShoresLists(map, map[x][y]);
-                    return map[x][y];
-                } else {
-                    return null;
-                }
-            default:
-                return null;
+    private MapCell findUnclaimedTarget (Player player) {
+        IndexedCellSet unclaimedLand = player.getFrontier().getUnclaimedLand();
+        if (unclaimedLand.isEmpty()) {
+            return null;
         }
+        return unclaimedLand.get(player.getRandom().nextInt(unclaimedLand.size()));
     }
 
     /**
-     * Adds the given cell to the corresponding shore list based on whether it has neighboring land cells
-     * and removes the neighbors of the cell from the corresponding shores list
-     * @param cell the cell to be added
+     * Picks a random cell from the frontier cells owned by any of the player's enemies.
      */
-    private void addToShoresLists(MapCell[][]map, MapCell cell) {
-        MapCell[] neighbors  = getNeighbors(cell);
-        if (neighbors[NeighborLocation.LEFT.locCode] == null || !neighbors[NeighborLocation.LEFT.locCode].isLand()) {
-            if (cell.getxLoc() > 0) {
-                westShores.add(cell);
+    private MapCell findEnemyTarget (Player player) {
+        ExpansionFrontier frontier = player.getFrontier();
+        IndexedCellSet enemyLand;
+        int candidates = 0, pick;
+
+        for (Integer enemyId : player.getEnemyMap().keySet()) {
+            enemyLand = frontier.getOwnedLand(enemyId);
+            if (enemyLand != null) {
+                candidates += enemyLand.size();
             }
         }
-        if (neighbors[NeighborLocation.UP.locCode] == null || !neighbors[NeighborLocation.UP.locCode].isLand()) {
-            if (cell.getyLoc() > 0) {
-                northShores.add(cell);
-            }
-        }
-        if (neighbors[NeighborLocation.RIGHT.locCode] == null || !neighbors[NeighborLocation.RIGHT.locCode].isLand()) {
-            if (cell.getxLoc() < width - 1) {
-                eastShores.add(cell);
-            }
+        if (candidates == 0) {
+            return null;
         }
-        if (neighbors[NeighborLocation.DOWN.locCode] == null || !neighbors[NeighborLocation.DOWN.locCode].isLand()) {
-            if (cell.getyLoc() < height - 1) {
-                southShores.add(cell);
+        pick = player.getRandom().nextInt(candidates);
+        for (Integer enemyId : player.getEnemyMap().keySet()) {
+            enemyLand = frontier.getOwnedLand(enemyId);
+            if (enemyLand != null) {
+                if (pick < enemyLand.size()) {
+                    return enemyLand.get(pick);
+                }
+                pick -= enemyLand.size();
             }
         }
-
-        if (neighbors[NeighborLocation.LEFT.locCode] != null && neighbors[NeighborLocation.LEFT.locCode].isLand()) {
-            eastShores.remove(neighbors[NeighborLocation.LEFT.locCode]);
-        }
-        if (neighbors[NeighborLocation.UP.locCode] != null && neighbors[NeighborLocation.UP.locCode].isLand()) {
-            southShores.remove(neighbors[NeighborLocation.UP.locCode]);
-        }
-        if (neighbors[NeighborLocation.RIGHT.locCode] != null && neighbors[NeighborLocation.RIGHT.locCode].isLand()) {
-            westShores.remove(neighbors[NeighborLocation.RIGHT.locCode]);
-        }
-        if (neighbors[NeighborLocation.DOWN.locCode] != null && neighbors[NeighborLocation.DOWN.locCode].isLand()) {
-            northShores.remove(neighbors[NeighborLocation.DOWN.locCode]);
-        }
+        return null;
     }
 
-    /**
-     * Attempts to find a cell adjacent to a game.Player's territory that is a valid expansion target.
-     * Uses a {@link MapCellComparator} to determine the validity of the expansion target
-     * @param player The player whose borders should be searched
-     * @param comparatorType The type of expansion target to be searched for
-     * @return A map.MapCell that is a valid expansion target, null if none are found
-     */
-    public MapCell findExpansionTarget (Player player, MapCellComparator.Type comparatorType) {
+    private MapCell searchBorders (Player player, MapCellComparator.Type comparatorType) {
         MapCellComparator comparator = new MapCellComparator(comparatorType, player);
-        MapCell possibleExpansion;
         Map.NeighborLocation expansionDirection;
-        ArrayList<MapCell> borders;
-        int x, y, startDir, bordersChecked;
-        Random rand = new Random();
+        IndexedCellSet borders;
+        MapCell borderCell;
+        int x, y, possibleExpansion, startDir, startSlot, bordersChecked, scanned = 0;
+        SplittableRandom rand = player.getRandom();
 
         startDir = rand.nextInt(4);
         if (startDir == 0) {
@@ -403,15 +322,21 @@ public class Map {
                     borders = player.getSouthBorders();
                     break;
                 default:
+                    Metrics.getSink().record(Metric.TARGET_CELLS_SCANNED, scanned);
                     return null;
             }
             if (borders.size() > 0){
-                for (MapCell borderCell : borders) {
+                //start from a random border cell, so a match is found in constant time when matches are common
+                startSlot = rand.nextInt(borders.size());
+                for (int i = 0; i < borders.size(); i++) {
+                    borderCell = borders.get((startSlot + i) % borders.size());
                     x = borderCell.getxLoc() + expansionDirection.x;
                     y = borderCell.getyLoc() + expansionDirection.y;
-                    possibleExpansion = map[x][y];
-                    if (comparator.matches(possibleExpansion)){
-                        return possibleExpansion;
+                    possibleExpansion = cells.index(x, y);
+                    scanned++;
+                    if (comparator.matches(this, possibleExpansion)){
+                        Metrics.getSink().record(Metric.TARGET_CELLS_SCANNED, scanned);
+                        return getCell(possibleExpansion);
                     }
                 }
             }
@@ -431,31 +356,39 @@ public class Map {
             }
             bordersChecked++;
         }
+        Metrics.getSink().record(Metric.TARGET_CELLS_SCANNED, scanned);
         return null;
     }
 
     /**
      * Overwrites the existing map cell with newCell if newCell's coordinates exist within
-     * the map.
+     * the map.  Cells that are views of this map already share its storage, so nothing needs to be copied.
      * @param newCell the cell value to be inserted in the map, overwriting the existing cell
      * @return the newly updated cell, or null if the coordinates of the new cell were invalid
      */
     public MapCell updateCell(MapCell newCell) {
-        if (getCell(newCell.getxLoc(), newCell.getyLoc()) != null) {
-            map[newCell.getxLoc()][newCell.getyLoc()] = newCell;
-            return map[newCell.getxLoc()][newCell.getyLoc()];
+        if (newCell.getStore() == cells) {
+            return newCell;
+        } else if (cells.contains(newCell.getxLoc(), newCell.getyLoc())) {
+            int index = cells.index(newCell.getxLoc(), newCell.getyLoc());
+            cells.copyCell(newCell.getStore(), newCell.getIndex(), index);
+            return getCell(index);
         } else {
             return null;
         }
     }
 
+    /**
+     * Picks a random WEAK cell from a game.Player's territory to be improved to STRONG.
+     * @param player The player whose territory should be improved
+     * @return A WEAK map.MapCell owned by the player, null if all of their territory is STRONG
+     */
     public MapCell findImprovementTarget (Player player) {
-        for (MapCell cell : player.getTerritory()) {
-            if (cell.getHp() == MapCell.HP.WEAK) {
-                return cell;
-            }
+        IndexedCellSet weakTerritory = player.getWeakTerritory();
+        if (weakTerritory.isEmpty()) {
+            return null;
         }
-        return null;
+        return weakTerritory.get(player.getRandom().nextInt(weakTerritory.size()));
     }
 
     /**
@@ -463,26 +396,57 @@ public class Map {
      * @return the map.MapCell at the given coordinates, null if the coordinates are invalid
      */
     public MapCell getCell(Integer x, Integer y) {
-        if ((0 < x && x < width) && (0 < y && y < height)) {
-            return map[x][y];
+        if (cells.contains(x, y)) {
+            return new MapCell(cells, cells.index(x, y));
         } else {
             return null;
         }
     }
 
+    /**
+     * Returns the cell found at the given flat index, y * width + x.
+     * @return a view of the cell at the given index
+     */
+    public MapCell getCell(int index) {
+        return new MapCell(cells, index);
+    }
+
+    public int getOwnerId(int index) {
+        return cells.getOwnerId(index);
+    }
+
+    public boolean isLand(int index) {
+        return cells.isLand(index);
+    }
+
+    public boolean isStrong(int index) {
+        return cells.isStrong(index);
+    }
+
+    /**
+     * Returns the flat index of the neighbor of a cell, without creating any cell views.
+     * @param index the index of the cell whose neighbor should be found
+     * @param nloc the location of the neighbor relative to the cell
+     * @return the index of the neighboring cell, or -1 if the neighbor would be off the map
+     */
+    public int getNeighborIndex(int index, NeighborLocation nloc) {
+        int neighborX = cells.x(index) + nloc.x,
+            neighborY = cells.y(index) + nloc.y;
+        if (cells.contains(neighborX, neighborY)) {
+            return cells.index(neighborX, neighborY);
+        } else {
+            return -1;
+        }
+    }
+
     public MapCell[] getNeighbors(MapCell cell) {
         MapCell[] neighbors = new MapCell[8];
-        int neighborX, neighborY;
+        int neighbor;
 
         for (NeighborLocation nloc : NeighborLocation.values()) {
-            neighborX = cell.getxLoc() + nloc.x;
-            neighborY = cell.getyLoc() + nloc.y;
-            if (0 <= neighborX && neighborX < width) {
-                if (0 <= neighborY && neighborY < height) {
-                    neighbors[nloc.locCode] = map[neighborX][neighborY];
-                } else {
-                    neighbors[nloc.locCode] = null;
-                }
+            neighbor = getNeighborIndex(cell.getIndex(), nloc);
+            if (neighbor != -1) {
+                neighbors[nloc.locCode] = getCell(neighbor);
             } else {
                 neighbors[nloc.locCode] = null;
             }
@@ -491,17 +455,319 @@ public class Map {
         return neighbors;
     }
 
+    /**
+     * Renders the map, one row per line.  The rendering is cached, and only rows that changed since the last call
+     * are re-encoded, so calls on a map that hasn't changed return the same string without any work.
+     */
     @Override
     public String toString () {
-        StringBuilder mapString = new StringBuilder();
+        synchronized (renderLock) {
+            refreshRendering();
+            if (renderedString == null) {
+                renderedString = new String(rendered, StandardCharsets.US_ASCII);
+            }
+            Metrics.getSink().increment(Metric.RENDER_BYTES, rendered.length);
+            return renderedString;
+        }
+    }
+
+    /**
+     * Renders part of the map, one row per line.  Viewport bounds are clipped to the map, and the work done is
+     * proportional to the size of the viewport rather than the map.
+     * @param x the column of the viewport's left edge
+     * @param y the row of the viewport's top edge
+     * @param viewWidth the width of the viewport, in cells
+     * @param viewHeight the height of the viewport, in cells
+     */
+    public String render (int x, int y, int viewWidth, int viewHeight) {
+        byte[] view = new byte[getRenderLength(x, y, viewWidth, viewHeight)];
+        renderTo(ByteBuffer.wrap(view), x, y, viewWidth, viewHeight);
+        return new String(view, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Renders a viewport of the given size centered on the bounding box of a player's territory.  The viewport is
+     * moved back inside the map where the territory is near an edge, so it only comes out smaller than asked when
+     * the map itself is smaller.
+     * @param player the player whose territory the view is centered on
+     * @param viewWidth the width of the viewport, in cells
+     * @param viewHeight the height of the viewport, in cells
+     * @return the rendered viewport, or the whole map if the player owns no territory
+     */
+    public String renderAround (Player player, int viewWidth, int viewHeight) {
+        TerritoryBounds bounds = player.getBounds();
+        int centerX, centerY;
+
+        if (bounds.isEmpty()) {
+            return toString();
+        }
+        centerX = (bounds.getMinX() + bounds.getMaxX()) / 2;
+        centerY = (bounds.getMinY() + bounds.getMaxY()) / 2;
+        return render(Math.max(0, Math.min(width - viewWidth, centerX - viewWidth / 2)),
+            Math.max(0, Math.min(height - viewHeight, centerY - viewHeight / 2)), viewWidth, viewHeight);
+    }
+
+    /**
+     * Writes the map to a character stream, one row per line, exactly as {@link #toString()} renders it.  Rows
+     * are streamed from the cached rendering without building the whole string.
+     */
+    public void renderTo (Appendable out) throws IOException {
+        renderTo(out, 0, 0, width, height);
+    }
+
+    /**
+     * Writes part of the map to a character stream, one row per line.
+     * @param x the column of the viewport's left edge
+     * @param y the row of the viewport's top edge
+     * @param viewWidth the width of the viewport, in cells
+     * @param viewHeight the height of the viewport, in cells
+     */
+    public void renderTo (Appendable out, int x, int y, int viewWidth, int viewHeight) throws IOException {
+        Viewport view = new Viewport(x, y, viewWidth, viewHeight);
+        int viewWidthClipped = view.right - view.left, offset;
+        //each row is widened into this buffer, which ends with the line separator, and appended from it
+        char[] line = new char[viewWidthClipped + LINE_SEPARATOR.length];
+        CharBuffer lineChars = CharBuffer.wrap(line);
+        byte[] snapshot;
+
+        for (int i = 0; i < LINE_SEPARATOR.length; i++) {
+            line[viewWidthClipped + i] = (char) LINE_SEPARATOR[i];
+        }
+        snapshot = acquireRendering();
+        try {
+            Metrics.getSink().increment(Metric.RENDER_BYTES, view.length());
+            for (int row = view.top; row < view.bottom; row++) {
+                offset = row * rowStride + view.left;
+                for (int i = 0; i < viewWidthClipped; i++) {
+                    line[i] = (char) snapshot[offset + i];
+                }
+                out.append(lineChars, 0, line.length);
+            }
+        } finally {
+            releaseRendering(snapshot);
+        }
+    }
+
+    /**
+     * Writes the map to a buffer as ASCII bytes, one row per line.
+     * @throws java.nio.BufferOverflowException if the buffer has less than {@link #getRenderLength()} bytes left
+     */
+    public void renderTo (ByteBuffer out) {
+        renderTo(out, 0, 0, width, height);
+    }
+
+    /**
+     * Writes part of the map to a buffer as ASCII bytes, one row per line.  Viewport bounds are clipped to the map.
+     * @throws java.nio.BufferOverflowException if the buffer has less than
+     *          {@link #getRenderLength(int, int, int, int)} bytes left
+     */
+    public void renderTo (ByteBuffer out, int x, int y, int viewWidth, int viewHeight) {
+        Viewport view = new Viewport(x, y, viewWidth, viewHeight);
+
+        if (out.remaining() < view.length()) {
+            throw new BufferOverflowException();
+        }
+        //the copy into the buffer is made under the render lock, so the cached bytes never need copying for it
+        synchronized (renderLock) {
+            refreshRendering();
+            Metrics.getSink().increment(Metric.RENDER_BYTES, view.length());
+            if (view.isFullWidth()) {
+                out.put(rendered, view.top * rowStride, view.length());
+            } else {
+                for (int row = view.top; row < view.bottom; row++) {
+                    out.put(rendered, row * rowStride + view.left, view.right - view.left);
+                    out.put(LINE_SEPARATOR);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the map to a channel as ASCII bytes, one row per line.  The bytes are written straight from the cached
+     * rendering without being copied.
+     */
+    public void renderTo (WritableByteChannel out) throws IOException {
+        renderTo(out, 0, 0, width, height);
+    }
+
+    /**
+     * Writes part of the map to a channel as ASCII bytes, one row per line.  Viewport bounds are clipped to the map.
+     * The bytes are written straight from the cached rendering, gathered into a single write where the channel
+     * supports it.
+     */
+    public void renderTo (WritableByteChannel out, int x, int y, int viewWidth, int viewHeight) throws IOException {
+        Viewport view = new Viewport(x, y, viewWidth, viewHeight);
+        byte[] snapshot = acquireRendering();
+        ByteBuffer[] rows;
+
+        try {
+            Metrics.getSink().increment(Metric.RENDER_BYTES, view.length());
+            if (view.isFullWidth()) {
+                writeFully(out, ByteBuffer.wrap(snapshot, view.top * rowStride, view.length()));
+                return;
+            }
+            rows = new ByteBuffer[(view.bottom - view.top) * 2];
+            for (int row = view.top; row < view.bottom; row++) {
+                rows[(row - view.top) * 2] =
+                    ByteBuffer.wrap(snapshot, row * rowStride + view.left, view.right - view.left);
+                rows[(row - view.top) * 2 + 1] = ByteBuffer.wrap(LINE_SEPARATOR);
+            }
+            if (out instanceof GatheringByteChannel) {
+                long remaining = view.length();
+                while (remaining > 0) {
+                    remaining -= ((GatheringByteChannel) out).write(rows);
+                }
+            } else {
+                for (ByteBuffer row : rows) {
+                    writeFully(out, row);
+                }
+            }
+        } finally {
+            releaseRendering(snapshot);
+        }
+    }
+
+    private static void writeFully (WritableByteChannel out, ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * @return the number of bytes the whole map renders to
+     */
+    public int getRenderLength () {
+        return getRenderLength(0, 0, width, height);
+    }
+
+    /**
+     * @return the number of bytes a viewport of the map renders to, once clipped to the map
+     */
+    public int getRenderLength (int x, int y, int viewWidth, int viewHeight) {
+        return new Viewport(x, y, viewWidth, viewHeight).length();
+    }
+
+    /**
+     * @return the latest published version of the map.  A new map, or one restored from a snapshot, is at
+     *          version 0.
+     */
+    public long getVersion () {
+        return deltas.getVersion();
+    }
+
+    /**
+     * Publishes the cells changed since the last version as a new version, which clients can then be sent as a
+     * delta.  Nothing is published if no cell changed.
+     * @return the latest version
+     */
+    public long publishChanges () {
+        return deltas.publish();
+    }
+
+    /**
+     * Encodes the update that brings a client's {@link MapReplica} from the version it holds to the latest one,
+     * publishing any pending changes first.  The update holds only the cells that changed since the client's
+     * version, unless the client is too far behind, in which case it is a full frame of the map.
+     * @param clientVersion the version the client holds, or -1 if it holds none
+     */
+    public byte[] encodeUpdate (long clientVersion) {
+        return deltas.encodeUpdate(clientVersion);
+    }
+
+    /**
+     * Brings the cached rendering up to date and registers the caller as reading it.  The bytes returned aren't
+     * changed until they are released with {@link #releaseRendering(byte[])}, so they may be read without holding
+     * the render lock, while renders that arrive meanwhile copy the cache before changing it.
+     * @return the cached rendering
+     */
+    private byte[] acquireRendering () {
+        synchronized (renderLock) {
+            refreshRendering();
+            renderReaders++;
+            return rendered;
+        }
+    }
 
-        for (int y=0; y<height; y++) {
-            for (int x=0; x<width; x++) {
-                mapString.append((char) map[x][y].getDisplayCharId());
+    /**
+     * Ends a read of bytes returned by {@link #acquireRendering()}.  Once a cache has no readers left, it is
+     * changed in place again.
+     */
+    private void releaseRendering (byte[] snapshot) {
+        synchronized (renderLock) {
+            //a cache replaced while it was being read is left to its readers, and its count was dropped with it
+            if (snapshot == rendered) {
+                renderReaders--;
             }
-            mapString.append(System.lineSeparator());
         }
-        return mapString.toString();
+    }
+
+    /**
+     * Re-encodes the rows of the cached rendering that the store has marked dirty, and drops the cached string if
+     * any changed.  Must be called while holding the render lock.
+     */
+    private void refreshRendering () {
+        long dirty;
+        int row, rowsEncoded = 0;
+
+        if (rendered == null) {
+            rowStride = width + LINE_SEPARATOR.length;
+            rendered = new byte[rowStride * height];
+            for (int y = 0; y < height; y++) {
+                System.arraycopy(LINE_SEPARATOR, 0, rendered, y * rowStride + width, LINE_SEPARATOR.length);
+            }
+        }
+        for (int word = 0; word < cells.getDirtyRowWordCount(); word++) {
+            dirty = cells.takeDirtyRows(word);
+            while (dirty != 0) {
+                row = (word << 6) + Long.numberOfTrailingZeros(dirty);
+                dirty &= dirty - 1;
+                if (row < height) {
+                    if (renderReaders > 0) {
+                        rendered = rendered.clone();
+                        renderReaders = 0;
+                    }
+                    encodeRow(row);
+                    rowsEncoded++;
+                }
+            }
+        }
+        if (rowsEncoded > 0) {
+            renderedString = null;
+            Metrics.getSink().increment(Metric.RENDER_ROWS_ENCODED, rowsEncoded);
+        }
+    }
+
+    private void encodeRow (int y) {
+        int cell = cells.index(0, y), offset = y * rowStride;
+        for (int x = 0; x < width; x++) {
+            rendered[offset + x] = (byte) cells.getDisplayCharId(cell + x);
+        }
+    }
+
+    /**
+     * The part of the map a streaming render covers, clipped to the map.  Bounds are exclusive on the right and
+     * bottom.
+     */
+    private class Viewport {
+        private final int left, top, right, bottom;
+
+        private Viewport (int x, int y, int viewWidth, int viewHeight) {
+            if (viewWidth < 0 || viewHeight < 0) {
+                throw new IllegalArgumentException("viewport dimensions must not be negative");
+            }
+            left = Math.min(width, Math.max(0, x));
+            top = Math.min(height, Math.max(0, y));
+            right = Math.max(left, Math.min(width, (int) Math.min(Integer.MAX_VALUE, (long) x + viewWidth)));
+            bottom = Math.max(top, Math.min(height, (int) Math.min(Integer.MAX_VALUE, (long) y + viewHeight)));
+        }
+
+        private boolean isFullWidth () {
+            return left == 0 && right == width;
+        }
+
+        private int length () {
+            return (bottom - top) * (right - left + LINE_SEPARATOR.length);
+        }
     }
 
     public ArrayList<MapCell> getSpawnPoints () {
@@ -549,13 +815,4 @@ public class Map {
             this.locCode = locCode;
         }
     }
-
-    private class MapPoint {
-        int x,y;
-
-        public MapPoint(int x, int y) {
-            this.x = x;
-            this.y = y;
-        }
-    }
 }
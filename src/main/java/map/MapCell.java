@@ -2,14 +2,13 @@ package map;
 
 import game.Player;
 
+/**
+ * A lightweight view of a single cell of a {@link Map}.  The cell's state lives in the map's primitive storage,
+ * so any number of views of the same cell may exist at once, and views of the same cell are equal.
+ */
 public class MapCell {
-    private static final Land land = new Land();
-    private static final Sea sea = new Sea();
-    private long ownerExternalId;
-    private int ownerId;
-    private Integer xLoc, yLoc;
-    private HP hp;
-    private boolean isLand;
+    private final CellStore store;
+    private final int index, xLoc, yLoc;
 
     //acsii codes for '=' (land) and '~' (sea)
     public final static int LAND = 35, SEA = 126;
@@ -19,33 +18,32 @@ public class MapCell {
         WEAK;
     }
 
-    private MapCell() {
-        this.xLoc = 0;
-        this.yLoc = 0;
-        this.ownerId = sea.getId();
-        this.ownerExternalId = 0;
-        this.hp = HP.WEAK;
-        this.isLand = false;
+    MapCell(CellStore store, int index) {
+        this.store = store;
+        this.index = index;
+        this.xLoc = store.x(index);
+        this.yLoc = store.y(index);
     }
 
-    private MapCell(Integer x, Integer y) {
+    /**
+     * Creates a cell that isn't attached to any map.  Its state is held in a store of its own until it is
+     * copied onto a map with {@link Map#updateCell(MapCell)}.
+     */
+    private MapCell(int x, int y) {
+        this.store = new CellStore(1, 1);
+        this.index = 0;
         this.xLoc = x;
         this.yLoc = y;
-        this.ownerId = land.getId();
-        this.ownerExternalId = 1;
-        this.hp = HP.WEAK;
-        this.isLand = true;
     }
 
     public static MapCell createOceanCell(int x, int y) {
-        MapCell oceanCell = new MapCell();
-        oceanCell.setxLoc(x);
-        oceanCell.setyLoc(y);
-        return oceanCell;
+        return new MapCell(x, y);
     }
 
     public static MapCell createLandCell(int x, int y) {
-        return new MapCell(x, y);
+        MapCell landCell = new MapCell(x, y);
+        landCell.makeUnclaimedLand();
+        return landCell;
     }
 
     /**
@@ -60,94 +58,97 @@ public class MapCell {
      */
     public Player attack(Player attacker) {
         Player playerToReevaluate = null;
+        int ownerId = getOwnerId();
         //If the attacked space is empty land
         if (ownerId == LAND) {
-            this.hp = HP.WEAK;
+            this.setHp(HP.WEAK);
             this.setOwnership(attacker);
             attacker.addToTerritory(this);
             playerToReevaluate = attacker;
         //If the attacked space belongs to an enemy
-        } else if (attacker.getEnemyMap().containsKey(this.getOwnerId())) {
+        } else if (attacker.getEnemyMap().containsKey(ownerId)) {
             Player owner = attacker.getEnemyMap().get(ownerId);
-            if (this.hp == HP.WEAK && owner.getTerritory().size() > 1) {
+            if (this.getHp() == HP.WEAK && owner.getTerritory().size() > 1) {
                 owner.removeFromTerritory(this);
                 playerToReevaluate = owner;
                 this.makeUnclaimedLand();
-            } else if (this.hp == HP.STRONG) {
-                this.hp = HP.WEAK;
+            } else if (this.getHp() == HP.STRONG) {
+                this.setHp(HP.WEAK);
+                owner.addToWeakTerritory(this);
             }
         //If the "attacked" space belongs to the attacker
-        } else if (this.getOwnerId().equals(attacker.getId())) {
-            this.hp = HP.STRONG;
+        } else if (ownerId == attacker.getId()) {
+            this.setHp(HP.STRONG);
+            attacker.removeFromWeakTerritory(this);
         }
         return playerToReevaluate;
     }
 
     public void setOwnership(Player player) {
-        this.ownerId = player.getId();
-        this.ownerExternalId = player.getExternalId();
-
+        store.setOwnerId(index, player.getId());
     }
 
     public void makeUnclaimedLand () {
-        this.isLand = true;
-        this.ownerId = land.getId();
-        this.ownerExternalId = 1;
-        this.hp = HP.WEAK;
+        store.makeUnclaimedLand(index);
     }
 
     public void makeSea() {
-        this.ownerId = sea.getId();
-        this.ownerExternalId = 0;
-        this.isLand = false;
-    }
-    public Integer getOwnerId () {
-        return ownerId;
+        store.makeSea(index);
     }
 
-    public Integer getxLoc () {
-        return xLoc;
+    public int getOwnerId () {
+        return store.getOwnerId(index);
     }
 
-    private void setxLoc(Integer xLoc) {
-        this.xLoc = xLoc;
+    /**
+     * @return the flat index of this cell within its map, y * width + x
+     */
+    public int getIndex () {
+        return index;
     }
 
-    public Integer getyLoc () {
-        return yLoc;
+    public int getxLoc () {
+        return xLoc;
     }
 
-    private void setyLoc(Integer yLoc) {
-        this.yLoc = yLoc;
+    public int getyLoc () {
+        return yLoc;
     }
 
     public int getDisplayCharId () {
-        if (this.hp == HP.WEAK) {
-            return ownerId;
-        } else {
-            return ownerId - 32;
-        }
+        return store.getDisplayCharId(index);
     }
 
     public HP getHp () {
-        return hp;
+        return store.isStrong(index) ? HP.STRONG : HP.WEAK;
+    }
+
+    private void setHp (HP hp) {
+        store.setStrong(index, hp == HP.STRONG);
     }
 
     public boolean isLand() {
-        return this.isLand;
+        return store.isLand(index);
     }
 
-    private static class Land extends Player {
+    CellStore getStore () {
+        return store;
+    }
 
-        private Land () {
-            super("Land", LAND, (char)LAND, (char)LAND);
+    @Override
+    public boolean equals (Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof MapCell)) {
+            return false;
         }
+        MapCell other = (MapCell) o;
+        return store == other.store && index == other.index;
     }
 
-    private static class Sea extends Player {
-
-        private Sea () {
-            super("Sea", SEA, (char)SEA, (char)LAND);
-        }
+    @Override
+    public int hashCode () {
+        return index;
     }
 }
@@ -33,8 +33,33 @@ public class MapCellComparator {
         return result;
     }
 
+    /**
+     * Checks a cell of a map by its index, without creating a view of the cell.
+     * @param map the map containing the cell
+     * @param index the flat index of the cell within the map
+     * @return true if the cell matches this comparator's type
+     */
+    public boolean matches (Map map, int index) {
+        boolean result;
+        switch (type) {
+            case UNCLAIMED_LAND:
+                result = map.getOwnerId(index) == MapCell.LAND;
+                break;
+            case ENEMY_LAND:
+                result = player.getEnemyMap().containsKey(map.getOwnerId(index));
+                break;
+            case WEAK_OWNED_LAND:
+                result = !map.isStrong(index) && map.getOwnerId(index) == player.getId();
+                break;
+            default:
+                result = false;
+                break;
+        }
+        return result;
+    }
+
     private boolean isWeakOwnedLand (MapCell cell) {
-        return cell != null && cell.getHp().equals(MapCell.HP.WEAK) && cell.getOwnerId().equals(player.getId());
+        return cell != null && cell.getHp().equals(MapCell.HP.WEAK) && cell.getOwnerId() == player.getId();
     }
 
     private boolean isEnemyLand (MapCell cell) {
@@ -42,7 +67,7 @@ public class MapCellComparator {
     }
 
     private boolean isUnclaimedLand (MapCell cell) {
-        return cell != null && cell.getOwnerId().equals(MapCell.LAND);
+        return cell != null && cell.getOwnerId() == MapCell.LAND;
     }
 
     public enum Type {
@@ -0,0 +1,225 @@
+package map;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * The recent versions of a map, kept as deltas so clients can catch up on what changed instead of fetching the
+ * whole map again.  Publishing a version takes the cells that changed since the last one and encodes them as a
+ * frame: runs of consecutive cells with the same owner and hp, each stored as the gap from the end of the last
+ * run, its length and the cell, with the numbers as varints.  A claimed patch of land is a handful of runs
+ * however many cells it covers.  Cells are sent as owner ids rather than characters, since the characters of a
+ * large lobby's players repeat, and clients derive the characters with {@link Glyphs}.
+ * <br>
+ * A client holding some version is sent every frame after it.  Frames are only kept up to a total size, and a
+ * client older than the oldest frame kept, or one claiming a version the map doesn't have, is sent a full frame
+ * instead: the whole map as runs of the same cell.  The full frame is cached until the next version.
+ * <br>
+ * Updates are read back by a {@link MapReplica}.  Their layout is:
+ * <pre>
+ *   full:  FULL, version, width, height, then (length, cell) runs covering every cell
+ *   delta: DELTA, from version, to version, then per version a run count and its (gap, length, cell) runs
+ * </pre>
+ * where every number is an unsigned varint, and every cell is the varint of its owner id shifted left by one,
+ * with the low bit set if the cell is STRONG.
+ */
+final class MapDeltaLog {
+    static final byte FULL = 0, DELTA = 1;
+    //frames are kept up to this size, or a quarter of a byte per cell on large maps
+    private static final int MIN_BYTE_BUDGET = 4096;
+
+    private final CellStore cells;
+    private final int byteBudget;
+    //the frame of each version still kept, oldest first
+    private final ArrayDeque<byte[]> frames;
+    private int frameBytes;
+    private long version;
+    private byte[] fullFrame;
+    private long fullFrameVersion;
+
+    /**
+     * Starts a log at version 0, holding the store as it is now.  Changes made before the log was created, such
+     * as those made while generating the map, aren't part of any delta.
+     */
+    MapDeltaLog(CellStore cells) {
+        this.cells = cells;
+        this.byteBudget = Math.max(MIN_BYTE_BUDGET, cells.size() / 4);
+        this.frames = new ArrayDeque<>();
+        this.fullFrameVersion = -1;
+        cells.takeChangedCells();
+    }
+
+    synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Publishes the cells changed since the last version as a new version.  Nothing is published if no cell
+     * changed.
+     * @return the latest version
+     */
+    synchronized long publish() {
+        int[] changed = cells.takeChangedCells();
+        if (changed.length == 0) {
+            return version;
+        }
+        byte[] frame = encodeFrame(changed);
+        frames.addLast(frame);
+        frameBytes += frame.length;
+        version++;
+        while (frameBytes > byteBudget && !frames.isEmpty()) {
+            frameBytes -= frames.removeFirst().length;
+        }
+        return version;
+    }
+
+    /**
+     * Publishes any pending changes, then encodes the update that brings a client at the given version up to
+     * the latest one.
+     * @param clientVersion the version the client holds, or a negative value if it holds none
+     */
+    synchronized byte[] encodeUpdate(long clientVersion) {
+        publish();
+        long oldest = version - frames.size();
+        if (clientVersion < oldest || clientVersion > version) {
+            return fullFrame();
+        }
+        //the newest frames are the ones a client is usually missing, so they are found from the back
+        Iterator<byte[]> missing = frames.descendingIterator();
+        int length = 0;
+        for (long frameVersion = version; frameVersion > clientVersion; frameVersion--) {
+            length += missing.next().length;
+        }
+        Encoder out = new Encoder(1 + 20 + length);
+        out.write(DELTA);
+        out.writeVarint(clientVersion);
+        out.writeVarint(version);
+        Iterator<byte[]> newer = frames.iterator();
+        for (long frameVersion = oldest; frameVersion < clientVersion; frameVersion++) {
+            newer.next();
+        }
+        while (newer.hasNext()) {
+            out.write(newer.next());
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] fullFrame() {
+        if (fullFrameVersion == version) {
+            return fullFrame;
+        }
+        Encoder out = new Encoder(64);
+        int size = cells.size(), start = 0, cell;
+        out.write(FULL);
+        out.writeVarint(version);
+        out.writeVarint(cells.width);
+        out.writeVarint(cells.height);
+        while (start < size) {
+            cell = encodeCell(start);
+            int end = start + 1;
+            while (end < size && encodeCell(end) == cell) {
+                end++;
+            }
+            out.writeVarint(end - start);
+            out.writeVarint(cell);
+            start = end;
+        }
+        fullFrame = out.toByteArray();
+        fullFrameVersion = version;
+        return fullFrame;
+    }
+
+    /**
+     * @param changed the indices of the changed cells, in ascending order
+     */
+    private byte[] encodeFrame(int[] changed) {
+        Encoder runs = new Encoder(changed.length * 2 + 8);
+        int runCount = 0, previousEnd = 0, start, end, cell;
+
+        for (int i = 0; i < changed.length; i = end) {
+            start = changed[i];
+            cell = encodeCell(start);
+            end = i + 1;
+            while (end < changed.length && changed[end] == start + (end - i) && encodeCell(changed[end]) == cell) {
+                end++;
+            }
+            runs.writeVarint(start - previousEnd);
+            runs.writeVarint(end - i);
+            runs.writeVarint(cell);
+            previousEnd = start + (end - i);
+            runCount++;
+        }
+
+        Encoder frame = new Encoder(runs.size + 5);
+        frame.writeVarint(runCount);
+        frame.write(runs.bytes, runs.size);
+        return frame.toByteArray();
+    }
+
+    /**
+     * @return the owner id of the cell at the given index shifted left by one, with the low bit set if it is STRONG
+     */
+    private int encodeCell(int index) {
+        return cells.getOwnerId(index) << 1 | (cells.isStrong(index) ? 1 : 0);
+    }
+
+    static long readVarint(ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        byte next;
+        do {
+            next = in.get();
+            value |= (long) (next & 0x7f) << shift;
+            shift += 7;
+        } while (next < 0);
+        return value;
+    }
+
+    /**
+     * A growable byte array that numbers are written to as varints.
+     */
+    private static final class Encoder {
+        private byte[] bytes;
+        private int size;
+
+        private Encoder(int initialCapacity) {
+            this.bytes = new byte[Math.max(16, initialCapacity)];
+        }
+
+        private void write(byte value) {
+            ensureCapacity(1);
+            bytes[size++] = value;
+        }
+
+        private void write(byte[] values) {
+            write(values, values.length);
+        }
+
+        private void write(byte[] values, int length) {
+            ensureCapacity(length);
+            System.arraycopy(values, 0, bytes, size, length);
+            size += length;
+        }
+
+        private void writeVarint(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7fL) != 0) {
+                bytes[size++] = (byte) (value & 0x7f | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package map;
+
+import java.util.SplittableRandom;
+
+/**
+ * Fills a map with land once its spawns have been placed.  By the time a generator runs, every spawn point and
+ * its neighbors are land, and the spawns are joined by corridors of land, so a generator only ever adds land and
+ * can't disconnect the players from one another.  A generator must draw any randomness it needs from the stream
+ * it is given, so the same stream state always generates the same map.
+ */
+public interface MapGenerator {
+
+    /**
+     * Adds land to the map until exactly floor(width * height * landRatio) of its cells are land.  A map whose
+     * spawns and corridors already cover more than that is left as it is.
+     * @param map the map to fill, which may only be changed through {@link Map#makeLand(int)}
+     * @param landRatio the ratio of land to sea that the map should match.  Value must be between 0 and 1
+     * @param random the stream to draw from
+     */
+    void generateLand(Map map, double landRatio, SplittableRandom random);
+}
@@ -0,0 +1,139 @@
+package map;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+
+/**
+ * A client's copy of a map, kept up to date from the updates returned by {@link Map#encodeUpdate(long)}.  A new
+ * replica holds no version, so the first update it is sent is a full frame; after that it only needs the deltas
+ * since its version.  The replica holds the owner id and hp of every cell, and renders the same way the map
+ * does, so a client can tell apart players whose characters are the same.
+ */
+public class MapReplica {
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    private short[] owners;
+    private BitSet strong;
+    private int width, height;
+    private long version = -1;
+
+    /**
+     * @return the version of the map the replica holds, or -1 if it hasn't been sent one yet.  This is the
+     *          version to ask for updates since.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public void apply(byte[] update) {
+        apply(ByteBuffer.wrap(update));
+    }
+
+    /**
+     * Applies an update, reading it from the buffer's position to its limit.
+     * @throws IllegalArgumentException if the update is a delta from a version other than the replica's
+     */
+    public void apply(ByteBuffer update) {
+        byte kind = update.get();
+        if (kind == MapDeltaLog.FULL) {
+            applyFullFrame(update);
+            return;
+        } else if (kind != MapDeltaLog.DELTA) {
+            throw new IllegalArgumentException("Unknown map update type " + kind);
+        }
+        long from = MapDeltaLog.readVarint(update), to = MapDeltaLog.readVarint(update);
+        if (from != version) {
+            throw new IllegalArgumentException("Update from version " + from + " given to a replica at version "
+                + version);
+        }
+        int runCount, index, length;
+        while (update.hasRemaining()) {
+            runCount = (int) MapDeltaLog.readVarint(update);
+            index = 0;
+            for (int run = 0; run < runCount; run++) {
+                index += (int) MapDeltaLog.readVarint(update);
+                length = (int) MapDeltaLog.readVarint(update);
+                fill(index, length, (int) MapDeltaLog.readVarint(update));
+                index += length;
+            }
+        }
+        version = to;
+    }
+
+    private void applyFullFrame(ByteBuffer update) {
+        long to = MapDeltaLog.readVarint(update);
+        int index = 0, length;
+        width = (int) MapDeltaLog.readVarint(update);
+        height = (int) MapDeltaLog.readVarint(update);
+        owners = new short[width * height];
+        strong = new BitSet(owners.length);
+        while (index < owners.length) {
+            length = (int) MapDeltaLog.readVarint(update);
+            fill(index, length, (int) MapDeltaLog.readVarint(update));
+            index += length;
+        }
+        version = to;
+    }
+
+    /**
+     * Sets a run of cells to one encoded cell: an owner id shifted left by one, with the low bit set if STRONG.
+     */
+    private void fill(int from, int length, int cell) {
+        short ownerId = (short) (cell >>> 1);
+        for (int index = from; index < from + length; index++) {
+            owners[index] = ownerId;
+        }
+        strong.set(from, from + length, (cell & 1) != 0);
+    }
+
+    /**
+     * @return the id of the player who owns the cell at the given coordinates, or {@link MapCell#LAND} or
+     *          {@link MapCell#SEA} if no one does
+     */
+    public int getOwnerId(int x, int y) {
+        return owners[y * width + x];
+    }
+
+    public MapCell.HP getHp(int x, int y) {
+        return strong.get(y * width + x) ? MapCell.HP.STRONG : MapCell.HP.WEAK;
+    }
+
+    /**
+     * @return the character shown for the cell at the given coordinates
+     */
+    public char getDisplayChar(int x, int y) {
+        return (char) displayCharId(y * width + x);
+    }
+
+    private int displayCharId(int index) {
+        return Glyphs.glyph(owners[index], strong.get(index));
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Renders the replica, one row per line, exactly as {@link Map#toString()} renders the map it copies.
+     */
+    @Override
+    public String toString() {
+        if (owners == null) {
+            return "";
+        }
+        byte[] rendered = new byte[(width + LINE_SEPARATOR.length) * height];
+        int offset = 0;
+        for (int y = 0; y < height; y++) {
+            for (int index = y * width; index < (y + 1) * width; index++) {
+                rendered[offset++] = (byte) displayCharId(index);
+            }
+            System.arraycopy(LINE_SEPARATOR, 0, rendered, offset, LINE_SEPARATOR.length);
+            offset += LINE_SEPARATOR.length;
+        }
+        return new String(rendered, StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,300 @@
+package map;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import metrics.Metric;
+import metrics.Metrics;
+
+/**
+ * A generator of rounded landmasses from a height field.  Every cell is given a height from a few octaves of value
+ * noise, which is then smoothed with a cellular automata style pass that averages each cell with its neighbors.
+ * The sea cells with the greatest heights are picked as land, exactly as many as the land ratio calls for, so
+ * landmasses come out as rounded continents around the spawn corridors.
+ * <br>
+ * Only land a player could reach counts toward the ratio.  Picked land is kept where it connects to a spawn,
+ * through its western, northern, eastern and southern neighbors, and islands cut off from every spawn are left as
+ * sea.  The land they would have held is made up by flooding outward from the kept land, highest sea cell first,
+ * so the shoreline still follows the heights.
+ * <br>
+ * Heights are computed row by row on a fork/join pool.  Noise is hashed from the cell coordinates and a seed drawn
+ * once from the map's stream, so the result doesn't depend on how the rows are split between threads.  Connecting
+ * land to the spawns runs on the calling thread.
+ * <br>
+ * This generator is an alternative to {@link ShoreGrowthGenerator} for the shape of its land, not a faster
+ * replacement: it does more work per cell, and only the noise is spread across threads, so it is slower on
+ * machines with few cores.
+ */
+public class NoiseMapGenerator implements MapGenerator {
+    //the spacing of the coarsest noise lattice, in cells; each octave halves it
+    private static final int BASE_SCALE = 32;
+    private static final int OCTAVES = 3;
+    //rows handled by a single task before it stops splitting
+    private static final int ROWS_PER_TASK = 16;
+    //the states of a cell while land is connected to the spawns
+    private static final byte UNVISITED = 0, CONNECTED = 1, QUEUED = 2;
+
+    private final ForkJoinPool pool;
+
+    public NoiseMapGenerator() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool the pool the rows of the map are generated on
+     */
+    public NoiseMapGenerator(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void generateLand(Map map, double landRatio, SplittableRandom random) {
+        int width = map.getWidth(), height = map.getHeight(), seaCells = 0, landToAdd, landAdded, cell;
+        long seed = random.nextLong();
+        float[] noise = new float[width * height], smoothed = new float[width * height], seaHeights;
+        float threshold;
+        //cells found to connect to a spawn, or queued to flood into, are marked so each is only visited once
+        byte[] state = new byte[width * height];
+        int[] connected = new int[width * height];
+        int head = 0, tail = 0;
+        ShoreHeap shore = new ShoreHeap(smoothed);
+
+        pool.invoke(new RowTask(0, height, (from, to) -> fillNoise(noise, width, seed, from, to)));
+        pool.invoke(new RowTask(0, height, (from, to) -> smooth(noise, smoothed, width, height, from, to)));
+
+        landToAdd = (int) Math.floor((height * width) * landRatio);
+        for (int i = 0; i < smoothed.length; i++) {
+            if (map.isLand(i)) {
+                landToAdd--;
+            } else {
+                seaCells++;
+            }
+        }
+        if (landToAdd <= 0) {
+            return;
+        }
+
+        //the height of the landToAdd-th highest sea cell is the waterline
+        seaHeights = new float[seaCells];
+        for (int i = 0, next = 0; i < smoothed.length; i++) {
+            if (!map.isLand(i)) {
+                seaHeights[next++] = smoothed[i];
+            }
+        }
+        Arrays.parallelSort(seaHeights);
+        threshold = seaHeights[seaCells - landToAdd];
+        seaHeights = null;
+        landAdded = landToAdd;
+
+        //land above the waterline is kept where a spawn reaches it; sea along the way is where the flood starts
+        for (MapCell spawnPoint : map.getSpawnPoints()) {
+            if (state[spawnPoint.getIndex()] == UNVISITED) {
+                state[spawnPoint.getIndex()] = CONNECTED;
+                connected[tail++] = spawnPoint.getIndex();
+            }
+        }
+        while (head < tail) {
+            cell = connected[head++];
+            for (int direction = 0; direction < 4; direction++) {
+                int neighbor = neighbor(cell, direction, width, height);
+                if (neighbor == -1 || state[neighbor] != UNVISITED) {
+                    continue;
+                }
+                if (map.isLand(neighbor) || smoothed[neighbor] > threshold) {
+                    state[neighbor] = CONNECTED;
+                    connected[tail++] = neighbor;
+                } else {
+                    state[neighbor] = QUEUED;
+                    shore.add(neighbor);
+                }
+            }
+        }
+        for (int i = 0; i < tail; i++) {
+            if (!map.isLand(connected[i])) {
+                map.makeLand(connected[i]);
+                landToAdd--;
+            }
+        }
+        //what is left, from cells on the waterline and from islands no spawn reaches, floods in from the shore
+        while (landToAdd > 0 && !shore.isEmpty()) {
+            cell = shore.poll();
+            map.makeLand(cell);
+            landToAdd--;
+            for (int direction = 0; direction < 4; direction++) {
+                int neighbor = neighbor(cell, direction, width, height);
+                if (neighbor != -1 && state[neighbor] == UNVISITED) {
+                    state[neighbor] = QUEUED;
+                    shore.add(neighbor);
+                }
+            }
+        }
+        //every cell is placed on the first try
+        Metrics.getSink().increment(Metric.LAND_TRIES, landAdded - landToAdd);
+    }
+
+    /**
+     * @param direction 0 to 3 for the western, northern, eastern and southern neighbor
+     * @return the neighbor of a cell in the given direction, or -1 if it is off the map
+     */
+    private static int neighbor(int cell, int direction, int width, int height) {
+        switch (direction) {
+            case 0:
+                return cell % width > 0 ? cell - 1 : -1;
+            case 1:
+                return cell >= width ? cell - width : -1;
+            case 2:
+                return cell % width < width - 1 ? cell + 1 : -1;
+            default:
+                return cell < (height - 1) * width ? cell + width : -1;
+        }
+    }
+
+    private static void fillNoise(float[] noise, int width, long seed, int fromRow, int toRow) {
+        float value, amplitude;
+        int scale;
+        for (int y = fromRow; y < toRow; y++) {
+            for (int x = 0; x < width; x++) {
+                value = 0;
+                amplitude = 1;
+                scale = BASE_SCALE;
+                for (int octave = 0; octave < OCTAVES; octave++) {
+                    value += amplitude * valueNoise(seed + octave, x, y, scale);
+                    amplitude /= 2;
+                    scale /= 2;
+                }
+                noise[y * width + x] = value;
+            }
+        }
+    }
+
+    /**
+     * Interpolates between random values placed on a square lattice with the given spacing.
+     */
+    private static float valueNoise(long seed, int x, int y, int scale) {
+        int latticeX = x / scale, latticeY = y / scale;
+        float fx = fade((x % scale) / (float) scale),
+            fy = fade((y % scale) / (float) scale),
+            top = lerp(lattice(seed, latticeX, latticeY), lattice(seed, latticeX + 1, latticeY), fx),
+            bottom = lerp(lattice(seed, latticeX, latticeY + 1), lattice(seed, latticeX + 1, latticeY + 1), fx);
+        return lerp(top, bottom, fy);
+    }
+
+    /**
+     * @return a value between 0 and 1 that depends only on the seed and the lattice point
+     */
+    private static float lattice(long seed, int x, int y) {
+        //SplitMix64's finalizer, applied to the seed and both coordinates
+        long z = seed + 0x9E3779B97F4A7C15L * (((long) x << 32) ^ (y & 0xFFFFFFFFL));
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        return (z >>> 40) / (float) (1 << 24);
+    }
+
+    private static float fade(float t) {
+        return t * t * (3 - 2 * t);
+    }
+
+    private static float lerp(float a, float b, float t) {
+        return a + (b - a) * t;
+    }
+
+    /**
+     * Replaces each cell's height with the average of itself and its neighbors on the map.
+     */
+    private static void smooth(float[] noise, float[] smoothed, int width, int height, int fromRow, int toRow) {
+        float sum;
+        int count;
+        for (int y = fromRow; y < toRow; y++) {
+            for (int x = 0; x < width; x++) {
+                sum = 0;
+                count = 0;
+                for (int ny = Math.max(0, y - 1); ny <= Math.min(height - 1, y + 1); ny++) {
+                    for (int nx = Math.max(0, x - 1); nx <= Math.min(width - 1, x + 1); nx++) {
+                        sum += noise[ny * width + nx];
+                        count++;
+                    }
+                }
+                smoothed[y * width + x] = sum / count;
+            }
+        }
+    }
+
+    /**
+     * A binary max-heap of cell indices, ordered by their heights.
+     */
+    private static final class ShoreHeap {
+        private final float[] heights;
+        private int[] cells;
+        private int size;
+
+        private ShoreHeap(float[] heights) {
+            this.heights = heights;
+            this.cells = new int[64];
+        }
+
+        private boolean isEmpty() {
+            return size == 0;
+        }
+
+        private void add(int cell) {
+            int slot = size++, parent;
+            if (slot == cells.length) {
+                cells = Arrays.copyOf(cells, slot * 2);
+            }
+            while (slot > 0 && heights[cells[parent = (slot - 1) >>> 1]] < heights[cell]) {
+                cells[slot] = cells[parent];
+                slot = parent;
+            }
+            cells[slot] = cell;
+        }
+
+        private int poll() {
+            int top = cells[0], last = cells[--size], slot = 0, child;
+            while ((child = slot * 2 + 1) < size) {
+                if (child + 1 < size && heights[cells[child + 1]] > heights[cells[child]]) {
+                    child++;
+                }
+                if (heights[cells[child]] <= heights[last]) {
+                    break;
+                }
+                cells[slot] = cells[child];
+                slot = child;
+            }
+            cells[slot] = last;
+            return top;
+        }
+    }
+
+    private interface RowWork {
+        void run(int fromRow, int toRow);
+    }
+
+    /**
+     * Splits a range of rows in half until it is small enough to work through directly.
+     */
+    private static class RowTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int fromRow, toRow;
+        private final RowWork work;
+
+        RowTask(int fromRow, int toRow, RowWork work) {
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+            this.work = work;
+        }
+
+        @Override
+        protected void compute() {
+            if (toRow - fromRow <= ROWS_PER_TASK) {
+                work.run(fromRow, toRow);
+            } else {
+                int middle = (fromRow + toRow) >>> 1;
+                invokeAll(new RowTask(fromRow, middle, work), new RowTask(middle, toRow, work));
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package map;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Divides a map into square tiles, each guarded by its own lock, so that work on distant parts of the map can
+ * proceed in parallel.  A region is a square of cells around a center cell, and locking it locks every tile the
+ * square overlaps.  Tiles are always locked in ascending order, so two regions can never deadlock each other.
+ */
+public class RegionLocks {
+    private final ReentrantLock[] tiles;
+    private final int mapWidth, mapHeight, tileSize, tilesAcross, radius;
+
+    /**
+     * @param map the map to divide into tiles
+     * @param tileSize the width and height of a tile, in cells
+     * @param radius how far a region reaches from its center cell.  A tile size larger than twice the radius
+     *               means a region never covers more than four tiles.
+     */
+    public RegionLocks(Map map, int tileSize, int radius) {
+        if (tileSize < 1 || radius < 0) {
+            throw new IllegalArgumentException("tileSize must be positive and radius must not be negative");
+        }
+        this.mapWidth = map.getWidth();
+        this.mapHeight = map.getHeight();
+        this.tileSize = tileSize;
+        this.radius = radius;
+        this.tilesAcross = (mapWidth + tileSize - 1) / tileSize;
+        this.tiles = new ReentrantLock[tilesAcross * ((mapHeight + tileSize - 1) / tileSize)];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Locks every tile overlapped by the region around a cell.  The returned region must be closed, which
+     * releases the tiles, by the thread that locked it.
+     * @param index the flat index of the region's center cell
+     * @return the locked region
+     */
+    public Region lock(int index) {
+        int x = index % mapWidth,
+            y = index / mapWidth,
+            firstTileX = Math.max(0, x - radius) / tileSize,
+            lastTileX = Math.min(mapWidth - 1, x + radius) / tileSize,
+            firstTileY = Math.max(0, y - radius) / tileSize,
+            lastTileY = Math.min(mapHeight - 1, y + radius) / tileSize;
+        Region region = new Region((lastTileX - firstTileX + 1) * (lastTileY - firstTileY + 1));
+
+        for (int tileY = firstTileY; tileY <= lastTileY; tileY++) {
+            for (int tileX = firstTileX; tileX <= lastTileX; tileX++) {
+                tiles[tileY * tilesAcross + tileX].lock();
+                region.locked[region.count++] = tileY * tilesAcross + tileX;
+            }
+        }
+        return region;
+    }
+
+    public int getTileCount() {
+        return tiles.length;
+    }
+
+    /**
+     * The tiles held for one region.  Closing it releases them in the reverse of the order they were taken.
+     */
+    public class Region implements AutoCloseable {
+        private final int[] locked;
+        private int count;
+
+        private Region(int tileCount) {
+            this.locked = new int[tileCount];
+        }
+
+        @Override
+        public void close() {
+            while (count > 0) {
+                tiles[locked[--count]].unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package map;
+
+import java.util.SplittableRandom;
+
+import metrics.Metric;
+import metrics.Metrics;
+import metrics.MetricsSink;
+
+/**
+ * The default generator.  Land is grown outwards from the land already on the map one cell at a time, along a
+ * western, northern, eastern or southern shore picked at random, which gives one connected landmass with ragged
+ * coasts.  Shores are kept in indexed sets, so each new cell of land costs constant time.
+ */
+public class ShoreGrowthGenerator implements MapGenerator {
+    private static final Map.Direction[] SHORE_DIRECTIONS = Map.Direction.values();
+
+    @Override
+    public void generateLand(Map map, double landRatio, SplittableRandom random) {
+        new Growth(map, random).generateLand(landRatio);
+    }
+
+    /**
+     * The state of one run of the generator.  Shore sets hold land cells whose neighbor in the set's direction
+     * is sea.
+     */
+    private static class Growth {
+        private final Map map;
+        private final SplittableRandom random;
+        private final int width, height;
+        private final DenseIndexSet westShores, northShores, eastShores, southShores;
+
+        Growth(Map map, SplittableRandom random) {
+            this.map = map;
+            this.random = random;
+            this.width = map.getWidth();
+            this.height = map.getHeight();
+            this.westShores = new DenseIndexSet(width * height);
+            this.northShores = new DenseIndexSet(width * height);
+            this.eastShores = new DenseIndexSet(width * height);
+            this.southShores = new DenseIndexSet(width * height);
+        }
+
+        /**
+         * Adds more land to the map until the land to sea ratio matches the given ratio.  If the selected shore
+         * is empty, the next shore clockwise is used instead, so the ratio is always reached.
+         */
+        void generateLand(double landRatio) {
+            double landCellMax = Math.floor((height * width) * landRatio);
+            int dirCode, newLand, landCellCount = 0;
+            long tries = 0;
+            MetricsSink metrics = Metrics.getSink();
+
+            for (int i = 0; i < width * height; i++) {
+                if (map.isLand(i)) {
+                    addToShores(i);
+                    landCellCount++;
+                }
+            }
+            while (landCellCount < landCellMax) {
+                dirCode = random.nextInt(4);
+                newLand = -1;
+                for (int i = 0; i < SHORE_DIRECTIONS.length && newLand == -1; i++) {
+                    newLand = addRandomLandToShore(SHORE_DIRECTIONS[(dirCode + i) % SHORE_DIRECTIONS.length]);
+                    tries++;
+                }
+                if (newLand == -1) {
+                    //there are no shores left, so the whole map is land
+                    metrics.increment(Metric.LAND_ABORTS, 1);
+                    break;
+                }
+                landCellCount++;
+            }
+            metrics.increment(Metric.LAND_TRIES, tries);
+        }
+
+        /**
+         * Adds a new cell of land to a random shore.  Every cell of a shore set borders sea in the set's
+         * direction, so a pick always places new land.
+         * @param shore determines what kind of shore the new cell will be placed along.
+         * @return the index of the newly placed cell, or -1 if the shore set is empty.
+         */
+        private int addRandomLandToShore (Map.Direction shore) {
+            DenseIndexSet shores = getShores(shore);
+            int originShore, newLand;
+
+            if (shores.isEmpty()) {
+                return -1;
+            }
+            originShore = shores.get(random.nextInt(shores.size()));
+            switch (shore) {
+                case WEST:
+                    newLand = originShore - 1;
+                    break;
+                case NORTH:
+                    newLand = originShore - width;
+                    break;
+                case EAST:
+                    newLand = originShore + 1;
+                    break;
+                default:
+                    newLand = originShore + width;
+                    break;
+            }
+            //with new cell created, need to manage sets of shores
+            map.makeLand(newLand);
+            addToShores(newLand);
+            return newLand;
+        }
+
+        private DenseIndexSet getShores (Map.Direction shore) {
+            switch (shore) {
+                case WEST:
+                    return westShores;
+                case NORTH:
+                    return northShores;
+                case EAST:
+                    return eastShores;
+                default:
+                    return southShores;
+            }
+        }
+
+        /**
+         * Adds the given land cell to the corresponding shore sets based on whether it has neighboring land
+         * cells, and removes the neighbors of the cell from the corresponding shore sets
+         * @param index the index of the land cell
+         */
+        private void addToShores(int index) {
+            int x = index % width,
+                y = index / width;
+
+            if (x > 0) {
+                if (map.isLand(index - 1)) {
+                    eastShores.remove(index - 1);
+                } else {
+                    westShores.add(index);
+                }
+            }
+            if (y > 0) {
+                if (map.isLand(index - width)) {
+                    southShores.remove(index - width);
+                } else {
+                    northShores.add(index);
+                }
+            }
+            if (x < width - 1) {
+                if (map.isLand(index + 1)) {
+                    westShores.remove(index + 1);
+                } else {
+                    eastShores.add(index);
+                }
+            }
+            if (y < height - 1) {
+                if (map.isLand(index + width)) {
+                    northShores.remove(index + width);
+                } else {
+                    southShores.add(index);
+                }
+            }
+        }
+    }
+}
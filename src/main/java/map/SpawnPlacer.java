@@ -0,0 +1,165 @@
+package map;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import metrics.Metric;
+import metrics.Metrics;
+import metrics.MetricsSink;
+
+/**
+ * Places spawn points with Poisson-disk sampling over a background grid.  Spawns keep at least 3 cells of space
+ * between them on one axis or the other, so a grid of 4x4 buckets holds at most one spawn each, and checking a
+ * candidate only means looking at the 9 buckets around it.
+ * <br>
+ * Spawns are sampled inside a rectangle with a width to height ratio of 3:1, sized from the number of spawns.
+ * If the rectangle fills up before every spawn is placed, it grows and sampling continues from the spawns already
+ * placed, so placement never starts over and finishes in time roughly linear in the number of spawns.
+ */
+final class SpawnPlacer {
+    //spawns closer than this on both axes are too close
+    private static final int MIN_DISTANCE = 4;
+    //candidates tried around a spawn before it is considered surrounded
+    private static final int CANDIDATES = 30;
+    //the starting rectangle holds this many cells per spawn
+    private static final int CELLS_PER_SPAWN = 32;
+    private static final int EMPTY = -1;
+
+    private final int numOfSpawns;
+    private final SplittableRandom random;
+    private final int[] xs, ys;
+    private int spanX, spanY, count;
+    private int[] grid, active;
+    private int gridWidth, gridHeight, activeCount;
+    //candidates rejected and times the rectangle grew, reported once placement is done
+    private long retries, grows;
+
+    /**
+     * @param numOfSpawns the number of spawns to place
+     * @param random the stream candidates are drawn from
+     */
+    SpawnPlacer(int numOfSpawns, SplittableRandom random) {
+        this.numOfSpawns = numOfSpawns;
+        this.random = random;
+        this.xs = new int[numOfSpawns];
+        this.ys = new int[numOfSpawns];
+        this.active = new int[numOfSpawns];
+    }
+
+    /**
+     * Places every spawn.  Spawns lie within [0, getSpanX()] x [0, getSpanY()].
+     */
+    void place() {
+        spanY = 2;
+        while ((spanY + 1) * (spanX(spanY) + 1) < numOfSpawns * CELLS_PER_SPAWN || spanY + 5 <= numOfSpawns / 4) {
+            spanY++;
+        }
+        spanX = spanX(spanY);
+        buildGrid();
+
+        add(random.nextInt(spanX + 1), random.nextInt(spanY + 1));
+        while (count < numOfSpawns) {
+            if (activeCount == 0) {
+                grow();
+            }
+            int slot = random.nextInt(activeCount);
+            if (!addCandidateAround(active[slot])) {
+                active[slot] = active[--activeCount];
+            }
+        }
+        MetricsSink metrics = Metrics.getSink();
+        metrics.increment(Metric.SPAWN_RETRIES, retries);
+        metrics.increment(Metric.SPAWN_GROWS, grows);
+    }
+
+    /**
+     * The width of the sampling rectangle for a given height, chosen so that a map with margins around the
+     * rectangle has a width exactly 3 times its height.
+     */
+    private static int spanX(int spanY) {
+        return 3 * spanY + 9;
+    }
+
+    /**
+     * Tries random candidates around a spawn until one is far enough from every other spawn.
+     * @return true if a spawn was added
+     */
+    private boolean addCandidateAround(int spawn) {
+        int dx, dy, x, y;
+        for (int i = 0; i < CANDIDATES; i++) {
+            //candidates lie between one and two minimum distances from the spawn
+            do {
+                dx = random.nextInt(MIN_DISTANCE * 4 - 1) - (MIN_DISTANCE * 2 - 1);
+                dy = random.nextInt(MIN_DISTANCE * 4 - 1) - (MIN_DISTANCE * 2 - 1);
+            } while (Math.abs(dx) < MIN_DISTANCE && Math.abs(dy) < MIN_DISTANCE);
+            x = xs[spawn] + dx;
+            y = ys[spawn] + dy;
+            if (0 <= x && x <= spanX && 0 <= y && y <= spanY && isFarEnough(x, y)) {
+                add(x, y);
+                return true;
+            }
+            retries++;
+        }
+        return false;
+    }
+
+    private boolean isFarEnough(int x, int y) {
+        int bucketX = x / MIN_DISTANCE, bucketY = y / MIN_DISTANCE, other;
+        for (int by = Math.max(0, bucketY - 1); by <= Math.min(gridHeight - 1, bucketY + 1); by++) {
+            for (int bx = Math.max(0, bucketX - 1); bx <= Math.min(gridWidth - 1, bucketX + 1); bx++) {
+                other = grid[by * gridWidth + bx];
+                if (other != EMPTY && Math.abs(xs[other] - x) < MIN_DISTANCE && Math.abs(ys[other] - y) < MIN_DISTANCE) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void add(int x, int y) {
+        xs[count] = x;
+        ys[count] = y;
+        grid[(y / MIN_DISTANCE) * gridWidth + x / MIN_DISTANCE] = count;
+        active[activeCount++] = count;
+        count++;
+    }
+
+    /**
+     * Enlarges the sampling rectangle while keeping its ratio, and makes every placed spawn active again so
+     * sampling can continue into the new space.
+     */
+    private void grow() {
+        grows++;
+        spanY += 2;
+        spanX = spanX(spanY);
+        buildGrid();
+        for (int i = 0; i < count; i++) {
+            grid[(ys[i] / MIN_DISTANCE) * gridWidth + xs[i] / MIN_DISTANCE] = i;
+            active[i] = i;
+        }
+        activeCount = count;
+    }
+
+    private void buildGrid() {
+        gridWidth = spanX / MIN_DISTANCE + 1;
+        gridHeight = spanY / MIN_DISTANCE + 1;
+        grid = new int[gridWidth * gridHeight];
+        Arrays.fill(grid, EMPTY);
+    }
+
+    int getSpanX() {
+        return spanX;
+    }
+
+    int getSpanY() {
+        return spanY;
+    }
+
+    int getX(int spawn) {
+        return xs[spawn];
+    }
+
+    int getY(int spawn) {
+        return ys[spawn];
+    }
+}
@@ -0,0 +1,121 @@
+package map;
+
+import java.util.Arrays;
+
+/**
+ * The bounding box of a player's territory, kept up to date as cells are gained and lost.  The number of owned
+ * cells in every row and column is counted, so when the last cell on an edge of the box is lost the edge moves in
+ * to the next occupied row or column without looking at the territory itself.
+ * <br>
+ * Counts are only kept for the rows and columns the territory has reached, rather than from the edge of the map,
+ * so a large lobby with thousands of small territories spread over a large map doesn't hold a map-sized array
+ * per player.
+ */
+public class TerritoryBounds {
+    private final Counts rowCounts, columnCounts;
+    private int size, minX, maxX, minY, maxY;
+
+    public TerritoryBounds() {
+        this.rowCounts = new Counts();
+        this.columnCounts = new Counts();
+    }
+
+    public void add(MapCell cell) {
+        int x = cell.getxLoc(), y = cell.getyLoc();
+        columnCounts.increment(x);
+        rowCounts.increment(y);
+        if (size++ == 0) {
+            minX = maxX = x;
+            minY = maxY = y;
+        } else {
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+        }
+    }
+
+    /**
+     * Removes a cell that was previously added.
+     */
+    public void remove(MapCell cell) {
+        int x = cell.getxLoc(), y = cell.getyLoc();
+        columnCounts.decrement(x);
+        rowCounts.decrement(y);
+        if (--size == 0) {
+            return;
+        }
+        while (columnCounts.get(minX) == 0) {
+            minX++;
+        }
+        while (columnCounts.get(maxX) == 0) {
+            maxX--;
+        }
+        while (rowCounts.get(minY) == 0) {
+            minY++;
+        }
+        while (rowCounts.get(maxY) == 0) {
+            maxY--;
+        }
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the column of the left edge of the box.  Undefined while the territory is empty.
+     */
+    public int getMinX() {
+        return minX;
+    }
+
+    public int getMaxX() {
+        return maxX;
+    }
+
+    /**
+     * @return the row of the top edge of the box.  Undefined while the territory is empty.
+     */
+    public int getMinY() {
+        return minY;
+    }
+
+    public int getMaxY() {
+        return maxY;
+    }
+
+    /**
+     * Counts of owned cells for a span of coordinates, which grows in either direction as coordinates outside it
+     * are counted.
+     */
+    private static final class Counts {
+        private int[] counts = new int[16];
+        //the coordinate counted at index 0, or -1 until the first coordinate is counted
+        private int origin = -1;
+
+        void increment(int coordinate) {
+            if (origin < 0) {
+                origin = Math.max(0, coordinate - counts.length / 2);
+            }
+            if (coordinate < origin) {
+                int newOrigin = Math.max(0, Math.min(coordinate, origin - counts.length));
+                int[] grown = new int[counts.length + origin - newOrigin];
+                System.arraycopy(counts, 0, grown, origin - newOrigin, counts.length);
+                counts = grown;
+                origin = newOrigin;
+            } else if (coordinate - origin >= counts.length) {
+                counts = Arrays.copyOf(counts, Math.max(counts.length * 2, coordinate - origin + 1));
+            }
+            counts[coordinate - origin]++;
+        }
+
+        void decrement(int coordinate) {
+            counts[coordinate - origin]--;
+        }
+
+        int get(int coordinate) {
+            return counts[coordinate - origin];
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * A histogram of non-negative longs with log-linear buckets, in the manner of HdrHistogram.  Values below 16 get
+ * a bucket each, and every power of two above that is split into 8 buckets, so any value is reported to within
+ * an eighth of itself while the whole range of a long takes under 500 buckets.
+ * <br>
+ * Recording takes no locks.  Buckets are striped across several arrays, picked by thread, so threads recording at
+ * the same time rarely contend on the same counter, and recording a value only takes one atomic increment, plus
+ * a second when it is the largest so far.  Reads sum the stripes, and may miss values recorded while they run.
+ */
+public final class Histogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS, HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    //16 single value buckets, then 8 buckets for each power of two from 2^4 up to 2^62
+    static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS;
+    private static final int STRIPES =
+        Integer.highestOneBit(Math.min(16, Math.max(1, Runtime.getRuntime().availableProcessors())) * 2 - 1);
+
+    private final AtomicLongArray[] stripes;
+    private final LongAccumulator max;
+
+    public Histogram() {
+        this.stripes = new AtomicLongArray[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new AtomicLongArray(BUCKETS);
+        }
+        this.max = new LongAccumulator(Math::max, 0);
+    }
+
+    /**
+     * Records a value.  Negative values are recorded as 0.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        stripes[(int) Thread.currentThread().getId() & (STRIPES - 1)].getAndIncrement(bucketOf(value));
+        max.accumulate(value);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (AtomicLongArray stripe : stripes) {
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                count += stripe.get(bucket);
+            }
+        }
+        return count;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return the mean of the recorded values, taking each as the middle of its bucket, or 0 if there are none
+     */
+    public double getMean() {
+        long count = 0, bucketCount;
+        double total = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            bucketCount = 0;
+            for (AtomicLongArray stripe : stripes) {
+                bucketCount += stripe.get(bucket);
+            }
+            count += bucketCount;
+            total += bucketCount * ((double) lowestValueIn(bucket) + highestValueIn(bucket)) / 2;
+        }
+        return count == 0 ? 0 : total / count;
+    }
+
+    /**
+     * @param percentile the percentage of values to cover, between 0 and 100
+     * @return the largest value that shares a bucket with the value the given percentage of recorded values are
+     *          at or below, or 0 if nothing has been recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long total = 0, target, seen = 0;
+
+        for (AtomicLongArray stripe : stripes) {
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                counts[bucket] += stripe.get(bucket);
+            }
+        }
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        target = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * total));
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts[bucket];
+            if (seen >= target) {
+                return Math.min(highestValueIn(bucket), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Clears every recorded value.  Values recorded while this runs may or may not be cleared.
+     */
+    public void reset() {
+        for (AtomicLongArray stripe : stripes) {
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                stripe.set(bucket, 0);
+            }
+        }
+        max.reset();
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        //the top SUB_BUCKET_BITS bits of the value, which lie between HALF_SUB_BUCKETS and SUB_BUCKETS
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS + 1));
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS + subBucket - HALF_SUB_BUCKETS;
+    }
+
+    static long lowestValueIn(int bucket) {
+        return bucket == 0 ? 0 : highestValueIn(bucket - 1) + 1;
+    }
+
+    static long highestValueIn(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket - SUB_BUCKETS) / HALF_SUB_BUCKETS + SUB_BUCKET_BITS,
+            subBucket = (bucket - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS,
+            shift = exponent - SUB_BUCKET_BITS + 1;
+        return (((long) subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,62 @@
+package metrics;
+
+/**
+ * The measurements the engine reports to a {@link MetricsSink}.  Latencies and per-call values are recorded into
+ * histograms, while counters are only ever incremented.
+ * <br>
+ * Some latencies are of work that takes little longer than reading the clock, and are marked as sampled.  A sink
+ * may time only a sample of those calls, while still counting every one.
+ */
+public enum Metric {
+    //the latency of Game.expand, in nanoseconds
+    EXPAND(Kind.HISTOGRAM),
+    //the latency of a single expansion resolved one unit at a time, in nanoseconds
+    EXECUTE_EXPANSION(Kind.HISTOGRAM, true),
+    //the latency of a batch of expansions resolved together, in nanoseconds
+    EXPAND_IN_BULK(Kind.HISTOGRAM),
+    //the latency of reevaluating the borders of a player who gained or lost a cell, in nanoseconds
+    EVALUATE_BORDERS(Kind.HISTOGRAM, true),
+    //the number of cells looked at by each search for an expansion target: every border cell checked by a
+    //search of a player's borders, or the one slot drawn from a player's frontier
+    TARGET_CELLS_SCANNED(Kind.HISTOGRAM),
+    //spawn candidates rejected for being too close to another spawn or off the map
+    SPAWN_RETRIES(Kind.COUNTER),
+    //times the spawn sampling area filled up and had to grow
+    SPAWN_GROWS(Kind.COUNTER),
+    //attempts to place a cell of land while generating a map
+    LAND_TRIES(Kind.COUNTER),
+    //map generations that ran out of places to put land before reaching their land ratio
+    LAND_ABORTS(Kind.COUNTER),
+    //bytes handed out by renderings of a map, whether whole or a viewport
+    RENDER_BYTES(Kind.COUNTER),
+    //rows of a map's cached rendering re-encoded because they changed
+    RENDER_ROWS_ENCODED(Kind.COUNTER);
+
+    public enum Kind {
+        COUNTER,
+        HISTOGRAM
+    }
+
+    private final Kind kind;
+    private final boolean sampled;
+
+    Metric(Kind kind) {
+        this(kind, false);
+    }
+
+    Metric(Kind kind, boolean sampled) {
+        this.kind = kind;
+        this.sampled = sampled;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return true if a sink may time only a sample of the calls this metric measures
+     */
+    public boolean isSampled() {
+        return sampled;
+    }
+}
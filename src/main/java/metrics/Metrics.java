@@ -0,0 +1,24 @@
+package metrics;
+
+/**
+ * Holds the sink the engine reports its measurements to.  A single sink is shared by every game and map in the
+ * process, since maps are generated and rendered without a game to ask.
+ */
+public final class Metrics {
+    private static volatile MetricsSink sink = MetricsSink.NOOP;
+
+    private Metrics() {
+    }
+
+    public static MetricsSink getSink() {
+        return sink;
+    }
+
+    /**
+     * Installs the sink measurements are reported to from now on.
+     * @param newSink the sink to report to, or null to stop reporting
+     */
+    public static void setSink(MetricsSink newSink) {
+        sink = newSink == null ? MetricsSink.NOOP : newSink;
+    }
+}
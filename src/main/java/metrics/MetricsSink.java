@@ -0,0 +1,60 @@
+package metrics;
+
+/**
+ * Receives the measurements taken on the engine's hot paths.  Sinks are called from every thread that plays a
+ * game, so they must be thread safe, and cheap enough to stay enabled under load.
+ * <br>
+ * The engine reports to {@link #NOOP} unless another sink is installed with {@link Metrics#setSink(MetricsSink)}.
+ * It doesn't read the clock or do any other work for the no-op sink, so instrumentation costs next to nothing
+ * while metrics are off.
+ */
+public interface MetricsSink {
+    /**
+     * Discards every measurement.
+     */
+    MetricsSink NOOP = new MetricsSink() {
+        @Override
+        public void increment(Metric metric, long amount) {
+        }
+
+        @Override
+        public void record(Metric metric, long value) {
+        }
+
+        @Override
+        public long startTimer(Metric metric) {
+            return 0;
+        }
+
+        @Override
+        public void stopTimer(Metric metric, long startNanos) {
+        }
+    };
+
+    /**
+     * Adds to a counter.
+     */
+    void increment(Metric metric, long amount);
+
+    /**
+     * Records a value into a histogram.
+     */
+    void record(Metric metric, long value);
+
+    /**
+     * Starts timing a piece of work.  A sink may skip reading the clock for some calls, as long as
+     * {@link #stopTimer(Metric, long)} knows from the returned value that it did.
+     * @return the value to pass to {@link #stopTimer(Metric, long)} once the timed work is done
+     */
+    default long startTimer(Metric metric) {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the nanoseconds since a timer was started into a histogram.
+     * @param startNanos the value returned by {@link #startTimer(Metric)}
+     */
+    default void stopTimer(Metric metric, long startNanos) {
+        record(metric, System.nanoTime() - startNanos);
+    }
+}
@@ -0,0 +1,134 @@
+package metrics;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A sink that keeps every measurement in memory, cheaply enough to leave installed in production.  Counters are
+ * {@link LongAdder}s and histograms are {@link Histogram}s, both striped so threads recording at once don't
+ * contend.  Measurements can be read at any time while they are being recorded.
+ * <br>
+ * Reading the clock takes tens of nanoseconds on some machines, as long as a single expansion takes, so
+ * {@link Metric#isSampled() sampled} metrics are only timed on a random sample of calls.  Every call is still
+ * counted.
+ */
+public class StripedMetricsSink implements MetricsSink {
+    //returned by startTimer for calls that aren't timed; nanoTime can be negative, but never this far from now
+    private static final long UNTIMED = Long.MIN_VALUE;
+    private static final int DEFAULT_SAMPLE_INTERVAL = 16;
+
+    //the value of each counter, and the number of calls each histogram has seen
+    private final LongAdder[] counters;
+    private final Histogram[] histograms;
+    private final int sampleMask;
+
+    /**
+     * Creates a sink that times one in every 16 calls of sampled metrics.
+     */
+    public StripedMetricsSink() {
+        this(DEFAULT_SAMPLE_INTERVAL);
+    }
+
+    /**
+     * @param sampleInterval time one in this many calls of sampled metrics, on average.  Must be a power of two;
+     *                       1 times every call.
+     */
+    public StripedMetricsSink(int sampleInterval) {
+        if (sampleInterval < 1 || Integer.bitCount(sampleInterval) != 1) {
+            throw new IllegalArgumentException("sampleInterval must be a power of two");
+        }
+        Metric[] metrics = Metric.values();
+        this.counters = new LongAdder[metrics.length];
+        this.histograms = new Histogram[metrics.length];
+        this.sampleMask = sampleInterval - 1;
+        for (Metric metric : metrics) {
+            counters[metric.ordinal()] = new LongAdder();
+            if (metric.getKind() == Metric.Kind.HISTOGRAM) {
+                histograms[metric.ordinal()] = new Histogram();
+            }
+        }
+    }
+
+    @Override
+    public void increment(Metric metric, long amount) {
+        counters[metric.ordinal()].add(amount);
+    }
+
+    @Override
+    public void record(Metric metric, long value) {
+        counters[metric.ordinal()].increment();
+        histograms[metric.ordinal()].record(value);
+    }
+
+    @Override
+    public long startTimer(Metric metric) {
+        if (metric.isSampled() && (ThreadLocalRandom.current().nextInt() & sampleMask) != 0) {
+            return UNTIMED;
+        }
+        return System.nanoTime();
+    }
+
+    @Override
+    public void stopTimer(Metric metric, long startNanos) {
+        if (startNanos == UNTIMED) {
+            counters[metric.ordinal()].increment();
+        } else {
+            record(metric, System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * @return the value of a counter, or the number of calls a histogram has seen.  The calls of a sampled metric
+     *          include those that weren't timed.
+     */
+    public long getCount(Metric metric) {
+        return counters[metric.ordinal()].sum();
+    }
+
+    /**
+     * @return the histogram a metric is recorded into
+     * @throws IllegalArgumentException if the metric is a counter
+     */
+    public Histogram getHistogram(Metric metric) {
+        if (metric.getKind() != Metric.Kind.HISTOGRAM) {
+            throw new IllegalArgumentException(metric + " is a counter");
+        }
+        return histograms[metric.ordinal()];
+    }
+
+    /**
+     * Clears every counter and histogram.
+     */
+    public void reset() {
+        for (Metric metric : Metric.values()) {
+            counters[metric.ordinal()].reset();
+            if (metric.getKind() == Metric.Kind.HISTOGRAM) {
+                histograms[metric.ordinal()].reset();
+            }
+        }
+    }
+
+    /**
+     * @return every metric on a line of its own: counters as their value, histograms as their number of calls
+     *          and the mean, median, 99th percentile and max of the values recorded
+     */
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        for (Metric metric : Metric.values()) {
+            out.append(metric).append(": ");
+            if (metric.getKind() == Metric.Kind.COUNTER) {
+                out.append(getCount(metric));
+            } else {
+                Histogram histogram = histograms[metric.ordinal()];
+                out.append("count=").append(getCount(metric))
+                    .append(" mean=").append(String.format("%.1f", histogram.getMean()))
+                    .append(" p50=").append(histogram.getValueAtPercentile(50))
+                    .append(" p99=").append(histogram.getValueAtPercentile(99))
+                    .append(" max=").append(histogram.getMax());
+            }
+            out.append(System.lineSeparator());
+        }
+        return out.toString();
+    }
+}
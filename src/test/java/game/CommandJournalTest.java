@@ -0,0 +1,94 @@
+package game;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CommandJournalTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void checkpointsDropAndRewriteFinishedSegments() throws Exception {
+        long lastOfFirstGame, bytes;
+        int segments;
+
+        try (CommandJournal journal = new CommandJournal(directory, 512)) {
+            lastOfFirstGame = appendTwoGames(journal);
+            segments = journal.getSegmentCount();
+            bytes = segmentBytes();
+            assertTrue(segments > 2);
+
+            //every finished segment still holds the second game's records, so they are rewritten rather than dropped
+            journal.checkpoint(1, lastOfFirstGame);
+            journal.awaitCompaction();
+            assertEquals(segments, journal.getSegmentCount());
+            assertTrue(segmentBytes() < bytes / 2);
+            journal.checkpoint(2, lastOfFirstGame + 1);
+            journal.awaitCompaction();
+            assertEquals(1, journal.getSegmentCount());
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            assertTrue(files.noneMatch(path -> path.getFileName().toString().endsWith(".compact")));
+        }
+        try (CommandJournal reopened = new CommandJournal(directory, 512)) {
+            assertEquals(1, reopened.getSegmentCount());
+        }
+    }
+
+    @Test
+    void checkpointsStillCountAfterReopening() throws Exception {
+        long lastOfFirstGame;
+        int segments;
+
+        try (CommandJournal journal = new CommandJournal(directory, 512)) {
+            lastOfFirstGame = appendTwoGames(journal);
+            segments = journal.getSegmentCount();
+            //too few of the second game's records to be worth rewriting any segment for
+            journal.checkpoint(2, lastOfFirstGame + 1);
+            journal.awaitCompaction();
+            assertEquals(segments, journal.getSegmentCount());
+        }
+        //the first game's checkpoint comes after the restart, and only empties segments along with the second's
+        try (CommandJournal reopened = new CommandJournal(directory, 512)) {
+            reopened.checkpoint(1, lastOfFirstGame);
+            reopened.awaitCompaction();
+            assertEquals(1, reopened.getSegmentCount());
+        }
+    }
+
+    /**
+     * Appends mostly the first game's records, with a few of the second's in every segment.
+     * @return the sequence of the first game's last record
+     */
+    private static long appendTwoGames(CommandJournal journal) {
+        long lastOfFirstGame = 0;
+        for (int i = 0; i < 200; i++) {
+            CommandJournal.Record record = CommandJournal.Record.adjustPlayerFunds(97, 1);
+            journal.append(i % 8 == 0 ? 2 : 1, record).join();
+            if (i % 8 != 0) {
+                lastOfFirstGame = record.getSequence();
+            }
+        }
+        return lastOfFirstGame;
+    }
+
+    private long segmentBytes() throws IOException {
+        long bytes = 0;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                if (path.getFileName().toString().startsWith("journal-")) {
+                    bytes += Files.size(path);
+                }
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,177 @@
+package game;
+
+import map.IndexedCellSet;
+import map.Map;
+import map.MapCell;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Expands every player of a game from several threads at once with concurrent expansion enabled, then checks
+ * that each player's territory, weak territory, borders and frontier agree with the map, and that no player
+ * spent more than they were given.
+ */
+class ConcurrentExpansionTest {
+    private static final int GAMES = 6, THREADS = 4;
+    private static final Map.NeighborLocation[] EDGES = {
+        Map.NeighborLocation.LEFT, Map.NeighborLocation.UP, Map.NeighborLocation.RIGHT, Map.NeighborLocation.DOWN
+    };
+
+    private ExecutorService executor;
+
+    @BeforeEach
+    void startThreads() {
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @AfterEach
+    void stopThreads() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void concurrentExpansionKeepsPlayersConsistentWithTheMap() throws Exception {
+        Random random = new Random(13);
+
+        for (int g = 0; g < GAMES; g++) {
+            int numOfPlayers = 4 + random.nextInt(23);
+            Game game = new Game(Game.LandDensity.values()[random.nextInt(3)], 100, g);
+            for (int i = 0; i < numOfPlayers; i++) {
+                game.addPlayer(new Player((char) ('a' + i) + "player", i));
+            }
+            game.enableConcurrentExpansion(8);
+            game.advanceGameStage();
+            runRound(game, 40);
+            check(game);
+
+            game.advanceGameStage();
+            for (Player initiator : game.getPlayers()) {
+                for (Player target : game.getPlayers()) {
+                    game.declareWar(initiator, target);
+                }
+            }
+            runRound(game, 200);
+            check(game);
+        }
+    }
+
+    /**
+     * Funds every player, then has each thread expand every player in turn, so every player is expanded by
+     * several threads at the same time.  Spending is checked against the reports once all threads finish.
+     */
+    private void runRound(Game game, int units) throws Exception {
+        List<Player> players = new ArrayList<>(game.getPlayers());
+        List<Future<?>> results = new ArrayList<>();
+        AtomicInteger[] spent = new AtomicInteger[players.size()];
+        int[] funds = new int[players.size()];
+
+        for (int i = 0; i < players.size(); i++) {
+            game.adjustPlayerFunds(players.get(i), units);
+            funds[i] = players.get(i).getExpansionFund();
+            spent[i] = new AtomicInteger();
+        }
+        for (int t = 0; t < THREADS; t++) {
+            int offset = t;
+            results.add(executor.submit(() -> {
+                for (int i = 0; i < players.size(); i++) {
+                    int p = (i + offset) % players.size();
+                    ExpansionReport report = game.expand(players.get(p), units / THREADS + 1);
+                    spent[p].addAndGet(report.successfulExpansions);
+                }
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        for (int i = 0; i < players.size(); i++) {
+            Player player = players.get(i);
+            assertTrue(player.getExpansionFund() >= 0, player.getUsername() + " overspent");
+            assertEquals(spent[i].get(), funds[i] - player.getExpansionFund(),
+                player.getUsername() + " spent a different amount than was reported");
+        }
+    }
+
+    private static void check(Game game) {
+        Map map = game.getMap();
+        int size = map.getWidth() * map.getHeight();
+
+        for (Player player : game.getPlayers()) {
+            int owned = 0, weak = 0, frontier = player.getFrontier().getUnclaimedLand().size();
+            for (int i = 0; i < size; i++) {
+                if (map.getOwnerId(i) == player.getId()) {
+                    owned++;
+                }
+                assertEquals(isFrontier(map, i, player), player.getFrontier().contains(i, map.getOwnerId(i)),
+                    player.getUsername() + " frontier disagrees with the map at " + i);
+            }
+            assertEquals(owned, player.getTerritory().size(), player.getUsername() + " territory size");
+
+            for (IndexedCellSet cells : player.getFrontier().getAllOwnedLand()) {
+                frontier += cells.size();
+            }
+            for (int i = 0; i < size; i++) {
+                if (isFrontier(map, i, player)) {
+                    frontier--;
+                }
+            }
+            assertEquals(0, frontier, player.getUsername() + " frontier holds stale cells");
+
+            for (MapCell cell : player.getTerritory()) {
+                boolean isWeak = cell.getHp() == MapCell.HP.WEAK;
+                assertEquals(player.getId(), cell.getOwnerId(),
+                    player.getUsername() + " territory holds a foreign cell");
+                assertEquals(isWeak, player.getWeakTerritory().contains(cell),
+                    player.getUsername() + " weak territory disagrees with the map");
+                weak += isWeak ? 1 : 0;
+            }
+            assertEquals(weak, player.getWeakTerritory().size(),
+                player.getUsername() + " weak territory holds stale cells");
+            checkBorders(map, player);
+        }
+    }
+
+    private static void checkBorders(Map map, Player player) {
+        IndexedCellSet[] borders = {
+            player.getWestBorders(), player.getNorthBorders(), player.getEastBorders(), player.getSouthBorders()
+        };
+        for (int d = 0; d < EDGES.length; d++) {
+            int expected = 0;
+            for (MapCell cell : player.getTerritory()) {
+                int neighbor = map.getNeighborIndex(cell.getIndex(), EDGES[d]);
+                boolean isBorder = neighbor != -1 && map.getOwnerId(neighbor) != MapCell.SEA
+                    && map.getOwnerId(neighbor) != player.getId();
+                assertEquals(isBorder, borders[d].contains(cell),
+                    player.getUsername() + " " + EDGES[d] + " border disagrees with the map");
+                expected += isBorder ? 1 : 0;
+            }
+            assertEquals(expected, borders[d].size(),
+                player.getUsername() + " " + EDGES[d] + " border holds stale cells");
+        }
+    }
+
+    private static boolean isFrontier(Map map, int index, Player player) {
+        int ownerId = map.getOwnerId(index);
+        if (ownerId == MapCell.SEA || ownerId == player.getId()) {
+            return false;
+        }
+        for (Map.NeighborLocation edge : EDGES) {
+            int neighbor = map.getNeighborIndex(index, edge);
+            if (neighbor != -1 && map.getOwnerId(neighbor) == player.getId()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
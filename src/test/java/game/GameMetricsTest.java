@@ -0,0 +1,60 @@
+package game;
+
+import metrics.Metric;
+import metrics.Metrics;
+import metrics.StripedMetricsSink;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GameMetricsTest {
+    private StripedMetricsSink metrics;
+
+    @BeforeEach
+    void installSink() {
+        metrics = new StripedMetricsSink(1);
+        Metrics.setSink(metrics);
+    }
+
+    @AfterEach
+    void removeSink() {
+        Metrics.setSink(null);
+    }
+
+    @Test
+    void everyExpansionIsTimedWhetherResolvedAloneOrInBulk() {
+        Game game = new Game(Game.LandDensity.NORMAL, 100, 7);
+        Player small = game.addPlayer(new Player("aplayer", 0)), bulk = game.addPlayer(new Player("bplayer", 1));
+        game.advanceGameStage();
+        game.adjustPlayerFunds(small, 10);
+        game.adjustPlayerFunds(bulk, 100);
+        metrics.reset();
+
+        game.expand(small, 10);
+        game.expand(bulk, 100);
+
+        assertEquals(2, metrics.getCount(Metric.EXPAND));
+        assertEquals(10, metrics.getCount(Metric.EXECUTE_EXPANSION));
+        assertEquals(1, metrics.getCount(Metric.EXPAND_IN_BULK));
+        assertEquals(1, metrics.getHistogram(Metric.EXPAND_IN_BULK).getCount());
+    }
+
+    @Test
+    void everyTargetSearchRecordsTheCellsItLookedAt() {
+        Game game = new Game(Game.LandDensity.NORMAL, 100, 7);
+        Player player = game.addPlayer(new Player("aplayer", 0));
+        game.addPlayer(new Player("bplayer", 1));
+        game.advanceGameStage();
+        game.adjustPlayerFunds(player, 10);
+        metrics.reset();
+
+        game.expand(player, 10);
+
+        //every expansion drew its target from the frontier, looking at a single cell
+        assertTrue(metrics.getCount(Metric.TARGET_CELLS_SCANNED) >= 10);
+        assertEquals(1, metrics.getHistogram(Metric.TARGET_CELLS_SCANNED).getMax());
+    }
+}
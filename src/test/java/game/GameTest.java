@@ -0,0 +1,35 @@
+package game;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GameTest {
+    @Test
+    void expandBeforeTheGameStartsReturnsAnEmptyReport() {
+        Game game = new Game(Game.LandDensity.NORMAL, 100, 1);
+        Player player = game.addPlayer(new Player("aplayer", 0));
+
+        ExpansionReport report = game.expand(player, 0);
+
+        assertEquals(0, report.expansionsAttempted);
+        assertEquals(0, report.successfulExpansions);
+        assertEquals(0, report.getMapVersion());
+    }
+
+    @Test
+    void expandPublishesTheVersionHoldingItsChanges() {
+        Game game = new Game(Game.LandDensity.NORMAL, 100, 1);
+        Player player = game.addPlayer(new Player("aplayer", 0));
+        game.addPlayer(new Player("bplayer", 1));
+        game.advanceGameStage();
+        game.adjustPlayerFunds(player, 5);
+
+        ExpansionReport report = game.expand(player, 5);
+
+        assertEquals(5, report.successfulExpansions);
+        assertTrue(report.getMapVersion() > 0);
+        assertEquals(report.getMapVersion(), game.getMap().getVersion());
+    }
+}
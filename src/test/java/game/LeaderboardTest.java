@@ -0,0 +1,57 @@
+package game;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LeaderboardTest {
+    @Test
+    void theRankingStaysOrderedByScoreThenIdAsScoresChange() {
+        Leaderboard leaderboard = new Leaderboard();
+        List<Player> players = new ArrayList<>();
+        int[] scores = new int[40];
+        Random random = new Random(21);
+
+        //added out of id order, so ties among new players have to be ordered on the way in
+        for (int i = 0; i < scores.length; i++) {
+            Player player = new Player("bot" + i, i);
+            player.setId(1000 - i * 7 % scores.length);
+            players.add(player);
+            leaderboard.add(player);
+        }
+        for (int change = 0; change < 5000; change++) {
+            int i = random.nextInt(scores.length);
+            if (scores[i] > 0 && random.nextInt(3) == 0) {
+                leaderboard.decrement(players.get(i));
+                scores[i]--;
+            } else {
+                leaderboard.increment(players.get(i));
+                scores[i]++;
+            }
+            if (change % 100 == 0) {
+                leaderboard.reset(players.get(i), scores[i] = random.nextInt(200));
+            }
+            if (change % 50 == 0) {
+                assertRanking(leaderboard, players, scores);
+            }
+        }
+        assertRanking(leaderboard, players, scores);
+    }
+
+    private static void assertRanking(Leaderboard leaderboard, List<Player> players, int[] scores) {
+        List<Player> expected = new ArrayList<>(players);
+        expected.sort(Comparator.<Player>comparingInt(p -> -scores[players.indexOf(p)]).thenComparing(Player::getId));
+
+        assertEquals(expected, leaderboard.getRanking());
+        assertEquals(expected.subList(0, 5), leaderboard.top(5));
+        for (Player player : players) {
+            assertEquals(scores[players.indexOf(player)], leaderboard.getScore(player));
+            assertEquals(expected.indexOf(player), player.getLeaderboardSlot());
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package map;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MapGeneratorTest {
+    @Test
+    void noiseMapLandAllConnectsToASpawn() {
+        for (double landRatio : new double[] {0.3, 0.5, 0.7}) {
+            for (int seed = 0; seed < 3; seed++) {
+                Map map = new Map(12, landRatio, 200, new NoiseMapGenerator(), new SplittableRandom(seed));
+                int size = map.getWidth() * map.getHeight();
+
+                assertEquals((int) Math.floor(size * landRatio), countLand(map));
+                assertEquals(countLand(map), countLandReachedFromSpawns(map));
+            }
+        }
+    }
+
+    private static int countLand(Map map) {
+        int land = 0;
+        for (int i = 0; i < map.getWidth() * map.getHeight(); i++) {
+            if (map.isLand(i)) {
+                land++;
+            }
+        }
+        return land;
+    }
+
+    private static int countLandReachedFromSpawns(Map map) {
+        Map.NeighborLocation[] edges = {
+            Map.NeighborLocation.LEFT, Map.NeighborLocation.UP, Map.NeighborLocation.RIGHT, Map.NeighborLocation.DOWN
+        };
+        boolean[] reached = new boolean[map.getWidth() * map.getHeight()];
+        int[] queue = new int[reached.length];
+        int head = 0, tail = 0;
+
+        for (MapCell spawnPoint : map.getSpawnPoints()) {
+            if (!reached[spawnPoint.getIndex()]) {
+                reached[spawnPoint.getIndex()] = true;
+                queue[tail++] = spawnPoint.getIndex();
+            }
+        }
+        while (head < tail) {
+            int cell = queue[head++];
+            for (Map.NeighborLocation edge : edges) {
+                int neighbor = map.getNeighborIndex(cell, edge);
+                if (neighbor != -1 && !reached[neighbor] && map.isLand(neighbor)) {
+                    reached[neighbor] = true;
+                    queue[tail++] = neighbor;
+                }
+            }
+        }
+        return tail;
+    }
+}
@@ -0,0 +1,118 @@
+package map;
+
+import game.Game;
+import game.Player;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class MapRenderTest {
+    @Test
+    void streamingRendersMatchToString() throws IOException {
+        Map map = new Map(12, 0.5, new SplittableRandom(2));
+        String rendered = map.toString();
+        StringBuilder chars = new StringBuilder();
+        ByteBuffer bytes = ByteBuffer.allocate(map.getRenderLength());
+        ByteArrayOutputStream channel = new ByteArrayOutputStream();
+
+        map.renderTo(chars);
+        map.renderTo(bytes);
+        map.renderTo(Channels.newChannel(channel));
+
+        assertEquals(rendered, chars.toString());
+        assertEquals(rendered, new String(bytes.array(), StandardCharsets.US_ASCII));
+        assertEquals(rendered, channel.toString(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * A render of part of the map, or a streaming render, that brings the cached rendering up to date.
+     */
+    private interface Render {
+        void run(Map map, Player player) throws IOException;
+    }
+
+    @Test
+    void toStringSeesChangesAlreadyTakenByOtherRenders() throws IOException {
+        Game game = new Game(Game.LandDensity.NORMAL, 100, 4);
+        Player player = game.addPlayer(new Player("aplayer", 0));
+        game.addPlayer(new Player("bplayer", 1));
+        game.advanceGameStage();
+        Map map = game.getMap();
+        List<Render> renders = List.of(
+            (m, p) -> m.render(0, 0, 5, 5),
+            (m, p) -> m.renderAround(p, 5, 5),
+            (m, p) -> m.renderTo(new StringBuilder()),
+            (m, p) -> m.renderTo(ByteBuffer.allocate(m.getRenderLength())),
+            (m, p) -> m.renderTo(Channels.newChannel(new ByteArrayOutputStream())));
+
+        for (Render render : renders) {
+            String before = map.toString();
+            StringBuilder expected = new StringBuilder();
+            flipCorner(map);
+            render.run(map, player);
+
+            map.renderTo(expected);
+            assertNotEquals(before, map.toString());
+            assertEquals(expected.toString(), map.toString());
+            assertEquals(map.toString(), game.getMapString());
+        }
+    }
+
+    private static void flipCorner(Map map) {
+        MapCell corner = map.getCell(map.getWidth() - 1, map.getHeight() - 1);
+        if (map.isLand(corner.getIndex())) {
+            corner.makeSea();
+        } else {
+            corner.makeUnclaimedLand();
+        }
+    }
+
+    @Test
+    void aRenderInProgressIsNotChangedByRendersAfterIt() throws IOException {
+        Map map = new Map(12, 0.5, new SplittableRandom(2));
+        String before = map.toString();
+        StringBuilder chars = new StringBuilder();
+        //changes the map and renders it again while the first render is still streaming
+        Appendable changingOut = new Appendable() {
+            private boolean changed;
+
+            @Override
+            public Appendable append(CharSequence text) {
+                return append(text, 0, text.length());
+            }
+
+            @Override
+            public Appendable append(CharSequence text, int start, int end) {
+                if (!changed) {
+                    changed = true;
+                    flipCorner(map);
+                    map.toString();
+                }
+                chars.append(text, start, end);
+                return this;
+            }
+
+            @Override
+            public Appendable append(char c) {
+                return append(String.valueOf(c));
+            }
+        };
+
+        map.renderTo(changingOut);
+
+        assertEquals(before, chars.toString());
+        assertNotEquals(before, map.toString());
+        chars.setLength(0);
+        map.renderTo(chars);
+        assertEquals(map.toString(), chars.toString());
+    }
+}
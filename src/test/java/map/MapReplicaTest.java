@@ -0,0 +1,98 @@
+package map;
+
+import game.Game;
+import game.Player;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MapReplicaTest {
+    @Test
+    void deltasKeepTheReplicaEqualToTheMap() {
+        Game game = new Game(Game.LandDensity.NORMAL, 0, 11);
+        MapReplica replica = new MapReplica();
+        for (int i = 0; i < 12; i++) {
+            game.addPlayer(new Player("p" + (char) ('a' + i), i));
+        }
+        game.advanceGameStage();
+        List<Player> players = new ArrayList<>(game.getPlayers());
+
+        replica.apply(game.getMapUpdate(replica.getVersion()));
+        assertMatches(game.getMap(), replica);
+        for (int round = 0; round < 30; round++) {
+            if (round == 10) {
+                game.advanceGameStage();
+                for (int i = 0; i + 1 < players.size(); i += 2) {
+                    game.declareWar(players.get(i), players.get(i + 1));
+                }
+            }
+            for (Player player : players) {
+                game.adjustPlayerFunds(player, 3 + round % 7);
+                game.expand(player, 3 + round % 7);
+                replica.apply(game.getMapUpdate(replica.getVersion()));
+            }
+            assertMatches(game.getMap(), replica);
+        }
+    }
+
+    @Test
+    void aReplicaTooFarBehindIsSentTheWholeMap() {
+        Game game = new Game(Game.LandDensity.NORMAL, 0, 3);
+        MapReplica replica = new MapReplica();
+        for (int i = 0; i < 4; i++) {
+            game.addPlayer(new Player("p" + (char) ('a' + i), i));
+        }
+        game.advanceGameStage();
+        for (Player player : game.getPlayers()) {
+            game.adjustPlayerFunds(player, 20);
+            game.expand(player, 20);
+        }
+
+        replica.apply(game.getMapUpdate(game.getMap().getVersion() + 1));
+        assertMatches(game.getMap(), replica);
+    }
+
+    @Test
+    void largeLobbyPlayersSharingACharacterKeepTheirOwnIds() {
+        Game game = new Game(Game.LandDensity.NORMAL, 0, 5);
+        MapReplica replica = new MapReplica();
+        game.enableLargeLobby(60);
+        for (int i = 0; i < 60; i++) {
+            game.addPlayer(new Player("bot" + i, i));
+        }
+        game.advanceGameStage();
+        for (Player player : game.getPlayers()) {
+            game.adjustPlayerFunds(player, 10);
+            game.expand(player, 10);
+        }
+        replica.apply(game.getMapUpdate(replica.getVersion()));
+
+        int first = Glyphs.FIRST_PALETTE_ID, second = first + 26;
+        boolean[] seen = new boolean[2];
+        assertEquals(Glyphs.weak(first), Glyphs.weak(second));
+        for (int y = 0; y < replica.getHeight(); y++) {
+            for (int x = 0; x < replica.getWidth(); x++) {
+                seen[0] |= replica.getOwnerId(x, y) == first;
+                seen[1] |= replica.getOwnerId(x, y) == second;
+            }
+        }
+        assertTrue(seen[0] && seen[1]);
+        assertMatches(game.getMap(), replica);
+    }
+
+    static void assertMatches(Map map, MapReplica replica) {
+        assertEquals(map.getVersion(), replica.getVersion());
+        assertEquals(map.toString(), replica.toString());
+        for (int y = 0; y < map.getHeight(); y++) {
+            for (int x = 0; x < map.getWidth(); x++) {
+                MapCell cell = map.getCell(x, y);
+                assertEquals(cell.getOwnerId(), replica.getOwnerId(x, y), "owner at " + x + "," + y);
+                assertEquals(cell.getHp(), replica.getHp(x, y), "hp at " + x + "," + y);
+            }
+        }
+    }
+}